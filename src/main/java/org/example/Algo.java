@@ -1,16 +1,59 @@
 package org.example;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 /**
  * Main class
  */
 public class Algo {
+    private static ResultStore store; // Results of earlier queries, opened on first use
+    private static boolean storeOpened = false; // Whether opening the store was attempted
+
+    /**
+     * Open the result store on first use. The store is off unless its file is set with
+     * -Dorg.example.store=&lt;path&gt;; its records are trusted, so only point it at a file no one else can write.
+     * @return the store, or null if disabled or unavailable
+     */
+    private static synchronized ResultStore store() {
+        if (!storeOpened) {
+            storeOpened = true;
+            String file = System.getProperty("org.example.store", "");
+            if (!file.isEmpty()) {
+                try {
+                    store = new ResultStore(Path.of(file), ResultStore.DEFAULT_CAPACITY);
+                } catch (IOException e) {
+                    System.out.println("Result store unavailable: " + e.getMessage());
+                }
+            }
+        }
+        return store;
+    }
+
     /**
      * Execution function
      * @param size grid size (N x N)
      * @param commands command string (must be (N^2)-1 in length)
      */
     public static void calculatePath(int size, String commands) {
-        int totalMoves = size * size - 1; // Total steps needed to complete the path
+        // Start from the top-left corner (0, 0) and end at the bottom-left corner (N-1, 0)
+        calculatePath(size, size, 0L, 0, 0, size - 1, 0, commands);
+    }
+
+    /**
+     * Execution function for a rectangular grid with blocked cells
+     * @param width number of columns
+     * @param height number of rows
+     * @param obstacles bitmask of blocked cells (bit row * width + col)
+     * @param startRow row of the start cell
+     * @param startCol column of the start cell
+     * @param targetRow row of the target cell
+     * @param targetCol column of the target cell
+     * @param commands command string (must be (open cells - 1) in length)
+     */
+    public static void calculatePath(int width, int height, long obstacles,
+                                     int startRow, int startCol, int targetRow, int targetCol, String commands) {
+        int totalMoves = width * height - Long.bitCount(obstacles) - 1; // Total steps needed to complete the path
 
         // Validate the input length
         if (commands.length() != totalMoves) {
@@ -20,22 +63,85 @@ public class Algo {
             return;
         }
 
-        // Initialize the grid and compute paths
+        // Answer from the result store if this query was counted before
+        ResultStore resultStore = store();
+        long lookupStartTime = System.nanoTime();
+        ResultStore.Record stored = resultStore == null ? null
+                : resultStore.get(width, height, obstacles, startRow, startCol, targetRow, targetCol, commands);
+        long lookupEndTime = System.nanoTime();
+        if (stored != null) {
+            System.out.println("Total paths: " + stored.getTotalPaths() + " (stored)");
+            System.out.println("Total time: " + (lookupEndTime - lookupStartTime) / 1000 + "us");
+            return;
+        }
+
+        // Initialize the grid and pick the search strategy
         long precomputedStartTime = System.currentTimeMillis();
-        Grid grid = new Grid(size, commands);
+        QueryPlanner planner = new QueryPlanner(width, height, obstacles, startRow, startCol, targetRow, targetCol,
+                commands, Runtime.getRuntime().availableProcessors());
         long precomputedEndTime = System.currentTimeMillis();
 
         System.out.println("Precomputed time: " + (precomputedEndTime - precomputedStartTime) + "ms");
+        System.out.println("Plan: " + planner);
+
+        long startTime;
+        long totalPaths;
+        long endTime;
+        try (SearchMonitor monitor = planner.register()) {
+            startTime = System.currentTimeMillis();
+            totalPaths = planner.count(monitor);
+            endTime = System.currentTimeMillis();
+        }
 
-        long startTime = System.currentTimeMillis();
-        grid.findTotalPaths(0, 0, 0); // Start from the top-left corner (0, 0)
-        long endTime = System.currentTimeMillis();
+        if (resultStore != null) {
+            resultStore.put(width, height, obstacles, startRow, startCol, targetRow, targetCol, commands,
+                    totalPaths, planner.nodes);
+        }
 
         // Output the results
-        System.out.println("Total paths: " + grid.totalPaths);
+        System.out.println("Total paths: " + totalPaths);
         System.out.println("Total time: " + (endTime - startTime) + "ms");
     }
 
+    /**
+     * Check whether any valid path exists, stopping at the first one found
+     * @param size grid size (N x N)
+     * @param commands command string (must be (N^2)-1 in length)
+     * @return true if a valid path exists. otherwise false
+     */
+    public static boolean exists(int size, String commands) {
+        return countAtLeast(size, commands, 1);
+    }
+
+    /**
+     * Check whether there are at least the given number of valid paths, stopping as soon as they are found
+     * @param size grid size (N x N)
+     * @param commands command string (must be (N^2)-1 in length)
+     * @param count required number of paths
+     * @return true if at least count valid paths exist. otherwise false
+     */
+    public static boolean countAtLeast(int size, String commands, long count) {
+        int totalMoves = size * size - 1;
+        if (commands.length() != totalMoves) {
+            throw new IllegalArgumentException("Please insert " + totalMoves + " characters total!");
+        }
+        return new Grid(size, commands).countAtLeast(count);
+    }
+
+    /**
+     * Count the valid paths ending at every cell in a single search
+     * @param size grid size (N x N)
+     * @param commands command string (must be (N^2)-1 in length)
+     * @return count of valid paths per ending cell, indexed by row * size + col
+     */
+    public static long[] countByEndpoint(int size, String commands) {
+        int totalMoves = size * size - 1;
+        if (commands.length() != totalMoves) {
+            throw new IllegalArgumentException("Please insert " + totalMoves + " characters total!");
+        }
+        return new Grid(size, commands).countByEndpoint();
+    }
+
     public static void main(String[] args) {
         int gridSize = 8; // Dimension of the grid (NxN)
 
@@ -54,10 +160,17 @@ public class Algo {
  *  Representing a grid, Used for computing
  */
  class Grid {
-    private final int gridSize; // Dimension of the grid (N x N)
-    private final int maxSteps; // Steps required to traverse the entire grid
+    private final int width; // Number of columns
+    private final int height; // Number of rows
+    private final int maxSteps; // Steps required to traverse every open cell
     private final int[][] visitedCells; // Tracks visited cells
-    private long visitedMask = 0L; // Bitmask of visited cells
+    private long visitedMask; // Bitmask of visited cells (blocked cells count as visited)
+
+    private final long obstacleMask; // Bitmask of blocked cells
+    private final int startRow; // Row of the start cell
+    private final int startCol; // Column of the start cell
+    private final int targetRow; // Row of the target cell
+    private final int targetCol; // Column of the target cell
 
     private final char[] directionCommands; // Input command sequence ('*', 'U', 'D', 'L', 'R')
     private final int[][] directionArray = {
@@ -66,15 +179,44 @@ public class Algo {
             {0, -1}, // Left
             {0, 1} // Right
     };
+    private static final int DIRECTION_ORDER = 0b11_10_01_00; // Up, Down, Left, Right packed 2 bits each
+    static final int ENGINE_VERSION = 1; // Bump whenever a change to the search changes its counts or node totals
 
     public long totalPaths = 0; // Count of valid paths
+    private long[] endpointPaths; // Count of valid paths per ending cell, only when any cell may be the target
+
+    private long pathLimit = Long.MAX_VALUE; // Stop searching once this many paths are found
+    private boolean preferLowDegree = false; // Try wildcard moves into the least connected cells first
+
+    private static final int STOP_CHECK_MASK = (1 << 12) - 1; // Poll for cancellation every 4096 nodes
+    private volatile boolean cancelled = false; // Set from another thread to stop the search
+    private boolean timed = false; // Whether the search has a deadline
+    private long deadline; // System.nanoTime() at which the search stops
+    private boolean stopped = false; // Whether the search stopped before exploring every path
+    private SearchMonitor.Stripe telemetry; // Optional JMX counters, published when polling
+
+    public long nodes = 0; // Number of search nodes visited
+    public long manhattan = 0; // Moves pruned by the Manhattan distance rule
+    public long connectivity = 0; // Branches pruned by the connectivity check
+    public long border = 0; // Moves pruned by the border constraints
+    public long deadEnd = 0; // Moves pruned by the dead end rule
 
     private int[] shortestDistancesToTarget; // Precomputed Manhattan distances to the target
 
-    private long[] neighbors; // Precomputed valid neighbors for each cell
+    private long[] neighbors; // Precomputed open neighbors for each cell
+
+    private long[] borderRequired; // Precomputed cells that must be visited before entering each cell
+    private long[] borderAlternative; // Precomputed cells that may be visited instead of borderRequired
+    private boolean edgeSeals; // Whether the grid edge closes off a region for dead end detection
+    private long unsealedObstacles; // Blocked cells that do not close off a region for dead end detection
+
+    private SubtreeCache cache; // Optional table of subtree counts from earlier searches
+    private int cacheSteps; // Only states before this step are cached
 
     private int wildcardStepCount = 0; // Number of wildcard steps taken
-    private final int totalCells; // Total cells in the grid (gridSize^2)
+    private int connectivityInterval = 5; // Check connectivity on every n-th wildcard step
+    private final int totalCells; // Total cells in the grid (width * height)
+    private final int openCells; // Cells that are not blocked
 
     // --- CONSTRUCTOR AND INITIALIZATION ---
 
@@ -84,16 +226,58 @@ public class Algo {
      * @param commands the commands in string
      */
     public Grid(int size, String commands) {
-        this.gridSize = size;
-        this.visitedCells = new int[gridSize][gridSize];
+        this(size, size, 0L, 0, 0, size - 1, 0, commands);
+    }
+
+    /**
+     * Initialize a rectangular grid with blocked cells
+     * @param width number of columns
+     * @param height number of rows
+     * @param obstacles bitmask of blocked cells (bit row * width + col)
+     * @param startRow row of the start cell
+     * @param startCol column of the start cell
+     * @param targetRow row of the target cell
+     * @param targetCol column of the target cell
+     * @param commands the commands in string
+     */
+    public Grid(int width, int height, long obstacles,
+                int startRow, int startCol, int targetRow, int targetCol, String commands) {
+        if (width < 1 || height < 1 || width * height > Long.SIZE) {
+            throw new IllegalArgumentException("Grid must have between 1 and " + Long.SIZE + " cells");
+        }
+
+        this.width = width;
+        this.height = height;
+        this.totalCells = width * height;
+
+        long allCells = totalCells == Long.SIZE ? -1L : (1L << totalCells) - 1;
+        if ((obstacles & ~allCells) != 0) {
+            throw new IllegalArgumentException("Obstacle outside of the grid");
+        }
+        if (!inBounds(startRow, startCol) || (obstacles & (1L << (startRow * width + startCol))) != 0) {
+            throw new IllegalArgumentException("Start cell must be an open cell");
+        }
+        if (!inBounds(targetRow, targetCol) || (obstacles & (1L << (targetRow * width + targetCol))) != 0) {
+            throw new IllegalArgumentException("Target cell must be an open cell");
+        }
+
+        this.obstacleMask = obstacles;
+        this.visitedMask = obstacles; // Blocked cells can never be entered
+        this.startRow = startRow;
+        this.startCol = startCol;
+        this.targetRow = targetRow;
+        this.targetCol = targetCol;
+        this.visitedCells = new int[height][width];
         this.directionCommands = commands.toCharArray();
-        this.totalCells = gridSize * gridSize;
-        this.maxSteps = totalCells - 1;
+        this.openCells = totalCells - Long.bitCount(obstacles);
+        this.maxSteps = openCells - 1;
 
         // Precompute process
         precomputeNeighbors();
         initializeMap();
         initializeShortestDistances();
+        precomputeBorderConstraints();
+        precomputeDeadEndSeals();
     }
 
     /**
@@ -101,21 +285,18 @@ public class Algo {
      * representing how many times a cell can still be visited
      */
     private void initializeMap() {
-        for (int i = 0; i < gridSize; i++) {
-            for (int j = 0; j < gridSize; j++) {
-                // Corners cells have 2 connection
-                if ((i == 0 || i == gridSize - 1) && (j == 0 || j == gridSize - 1)) {
-                    visitedCells[i][j] = 2;
-                }
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                int index = i * width + j;
 
-                // Edges cells have 3 connection
-                else if (i == 0 || i == gridSize - 1 || j == 0 || j == gridSize - 1) {
-                    visitedCells[i][j] = 3;
+                // Blocked cells look already visited
+                if ((obstacleMask & (1L << index)) != 0) {
+                    visitedCells[i][j] = 0;
                 }
 
-                // Inner cells have 4 connection
+                // Open cells have one connection per open neighbor (corners 2, edges 3, inner 4 on an empty grid)
                 else {
-                    visitedCells[i][j] = 4;
+                    visitedCells[i][j] = Math.max(1, Long.bitCount(neighbors[index]));
                 }
             }
         }
@@ -123,28 +304,33 @@ public class Algo {
 
     /**
      * Precompute valid neighbors for each cell using bitmasks. Each cell's neighbors are stored
-     * in a bitmask, allowing quick checks of connectivity.
+     * in a bitmask, allowing quick checks of connectivity. Blocked cells have no neighbors
+     * and are never a neighbor.
      */
     private void precomputeNeighbors() {
         neighbors = new long[totalCells];
 
-        for (int row = 0; row < gridSize; row++) {
-            for (int col = 0; col < gridSize; col++) {
-                int index = row * gridSize + col; // flatten 2D position to 1D array index
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int index = row * width + col; // flatten 2D position to 1D array index
                 long mask = 0L;
 
+                if ((obstacleMask & (1L << index)) != 0) {
+                    continue;
+                }
+
                 for (int[] direction : directionArray) {
                     int newRow = row + direction[0];
                     int newCol = col + direction[1];
 
 
                     if (inBounds(newRow, newCol)) {
-                        int neighborIndex = newRow * gridSize + newCol;
+                        int neighborIndex = newRow * width + newCol;
                         mask |= (1L << neighborIndex); // append
                     }
                 }
 
-                neighbors[index] = mask;
+                neighbors[index] = mask & ~obstacleMask;
             }
         }
     }
@@ -156,21 +342,30 @@ public class Algo {
      * @return true if inbound. otherwise false
      */
     private boolean inBounds(int row, int col) {
-        return row >= 0 && row < gridSize && col >= 0 && col < gridSize;
+        return row >= 0 && row < height && col >= 0 && col < width;
+    }
+
+    /**
+     * Check if the cell touches the outside of the grid
+     * @param row row index
+     * @param col column index
+     * @return true if the cell is on the outer ring. otherwise false
+     */
+    private boolean onEdge(int row, int col) {
+        return row == 0 || row == height - 1 || col == 0 || col == width - 1;
     }
 
     /**
-     * Compute the Manhattan distance from every cell to the target cell (gridSize-1, 0).
+     * Compute the Manhattan distance from every cell to the target cell.
      * @return shortest distance to target cell
      */
     private int[] computeShortestDistancesToTarget() {
         int[] distances = new int[totalCells];
-        int targetRow = gridSize - 1;
 
-        for (int row = 0; row < gridSize; row++) {
-            for (int col = 0; col < gridSize; col++) {
-                int index = row * gridSize + col;
-                distances[index] = Math.abs(row - targetRow) + col;
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                int index = row * width + col;
+                distances[index] = Math.abs(row - targetRow) + Math.abs(col - targetCol);
             }
         }
 
@@ -178,13 +373,345 @@ public class Algo {
     }
 
     /**
-     * Precompute the shortest Manhattan distances to the target cell (bottom-left corner).
+     * Precompute the shortest Manhattan distances to the target cell.
      * This information is used for pruning.
      */
     private void initializeShortestDistances() {
         this.shortestDistancesToTarget = computeShortestDistancesToTarget();
     }
 
+    /**
+     * Precompute, for every cell, the cells that must be visited before it can be entered: either all of
+     * borderRequired or all of borderAlternative. When the start lies on the outer ring, entering a ring cell
+     * closes off the ring cells between it and the start on either side together with the grid edge, so one
+     * of the two sides must already be visited. With a target on the ring it has to be the side away from
+     * the target, and the target itself can only be entered last.
+     */
+    private void precomputeBorderConstraints() {
+        borderRequired = new long[totalCells];
+        borderAlternative = new long[totalCells];
+        boolean anyTarget = endpointPaths != null;
+        int startIndex = startRow * width + startCol;
+        int targetIndex = targetRow * width + targetCol;
+        long openMask = ~obstacleMask & (totalCells == Long.SIZE ? -1L : (1L << totalCells) - 1);
+
+        // The target must be the final cell
+        if (!anyTarget) {
+            borderRequired[targetIndex] = openMask & ~(1L << targetIndex);
+            borderAlternative[targetIndex] = borderRequired[targetIndex];
+        }
+
+        if (width < 2 || height < 2 || !onEdge(startRow, startCol)) {
+            return;
+        }
+        if (!anyTarget && (startIndex == targetIndex || !onEdge(targetRow, targetCol))) {
+            return;
+        }
+
+        // Walk the outer ring clockwise from the top-left corner
+        int[] ring = new int[2 * (width + height) - 4];
+        int length = 0;
+        for (int col = 0; col < width; col++) ring[length++] = col;
+        for (int row = 1; row < height; row++) ring[length++] = row * width + width - 1;
+        for (int col = width - 2; col >= 0; col--) ring[length++] = (height - 1) * width + col;
+        for (int row = height - 2; row > 0; row--) ring[length++] = row * width;
+
+        for (int position = 0; position < length; position++) {
+            int cell = ring[position];
+            if (cell == startIndex || (!anyTarget && cell == targetIndex) || (obstacleMask & (1L << cell)) != 0) {
+                continue;
+            }
+
+            // Ring cells between this cell and the start on either side
+            long clockwise = 0L;
+            for (int next = (position + 1) % length; ring[next] != startIndex; next = (next + 1) % length) {
+                clockwise |= (1L << ring[next]);
+            }
+            long counterClockwise = 0L;
+            for (int next = (position + length - 1) % length; ring[next] != startIndex; next = (next + length - 1) % length) {
+                counterClockwise |= (1L << ring[next]);
+            }
+
+            if (anyTarget) {
+                borderRequired[cell] = clockwise & openMask;
+                borderAlternative[cell] = counterClockwise & openMask;
+            } else {
+                // Only the side away from the target is closed off
+                long away = (clockwise & (1L << targetIndex)) == 0 ? clockwise : counterClockwise;
+                borderRequired[cell] = away & openMask;
+                borderAlternative[cell] = away & openMask;
+            }
+        }
+    }
+
+    /**
+     * Precompute which walls close off a region for dead end detection. Visited cells always do.
+     * The grid edge and blocked cells connected to it only do when the start cell touches them,
+     * because the path then links both sides of the entered cell through the outside.
+     */
+    private void precomputeDeadEndSeals() {
+        // Flood blocked cells outwards from the blocked cells on the outer ring
+        long outside = 0L;
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                if (onEdge(row, col)) {
+                    outside |= (1L << (row * width + col));
+                }
+            }
+        }
+        outside &= obstacleMask;
+
+        long frontier = outside;
+        while (frontier != 0) {
+            long nextFrontier = 0L;
+            while (frontier != 0) {
+                int cell = Long.numberOfTrailingZeros(frontier);
+                frontier &= (frontier - 1);
+                int row = cell / width;
+                int col = cell % width;
+
+                for (int[] direction : directionArray) {
+                    int newRow = row + direction[0];
+                    int newCol = col + direction[1];
+                    if (inBounds(newRow, newCol)) {
+                        long bit = 1L << (newRow * width + newCol);
+                        if ((obstacleMask & bit) != 0 && (outside & bit) == 0) {
+                            outside |= bit;
+                            nextFrontier |= bit;
+                        }
+                    }
+                }
+            }
+            frontier = nextFrontier;
+        }
+
+        edgeSeals = onEdge(startRow, startCol);
+        for (int[] direction : directionArray) {
+            int newRow = startRow + direction[0];
+            int newCol = startCol + direction[1];
+            if (inBounds(newRow, newCol) && (outside & (1L << (newRow * width + newCol))) != 0) {
+                edgeSeals = true;
+            }
+        }
+
+        unsealedObstacles = edgeSeals ? obstacleMask & ~outside : obstacleMask;
+    }
+
+    /**
+     * Reuse subtree counts across searches
+     * @param cache table of subtree counts
+     * @param cacheSteps only states before this step are looked up and stored
+     */
+    void useCache(SubtreeCache cache, int cacheSteps) {
+        this.cache = cache;
+        this.cacheSteps = cacheSteps;
+    }
+
+    /**
+     * Replace a single command. Cached subtrees that include it must be invalidated by the caller.
+     * @param position index of the command
+     * @param command new command ('*', 'U', 'D', 'L', 'R')
+     */
+    void setCommand(int position, char command) {
+        directionCommands[position] = command;
+    }
+
+    /**
+     * Check connectivity on every n-th wildcard step. Any interval counts the same paths; shorter ones
+     * prune more at a higher cost per node.
+     * @param interval number of wildcard steps between checks
+     */
+    void setConnectivityInterval(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Interval must be at least 1");
+        }
+        this.connectivityInterval = interval;
+    }
+
+    /**
+     * Restore the initial state so the grid can be searched again.
+     */
+    void reset() {
+        visitedMask = obstacleMask;
+        wildcardStepCount = 0;
+        totalPaths = 0;
+        stopped = false;
+        nodes = 0;
+        manhattan = 0;
+        connectivity = 0;
+        border = 0;
+        deadEnd = 0;
+        initializeMap();
+    }
+
+    /**
+     * @return steps required to traverse every open cell
+     */
+    int getMaxSteps() {
+        return maxSteps;
+    }
+
+    /**
+     * @return number of columns
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return index of the start cell
+     */
+    int getStartIndex() {
+        return startRow * width + startCol;
+    }
+
+    /**
+     * @return index of the target cell
+     */
+    int getTargetIndex() {
+        return targetRow * width + targetCol;
+    }
+
+    /**
+     * @return bitmask of blocked cells
+     */
+    long getObstacleMask() {
+        return obstacleMask;
+    }
+
+    /**
+     * @param cell cell index
+     * @return bitmask of the open neighbors of the cell
+     */
+    long getNeighbors(int cell) {
+        return neighbors[cell];
+    }
+
+    /**
+     * @return number of rows
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return cells that must be visited before entering each cell, shared and not to be modified
+     */
+    long[] getBorderRequired() {
+        return borderRequired;
+    }
+
+    /**
+     * @return cells that may be visited instead of getBorderRequired, shared and not to be modified
+     */
+    long[] getBorderAlternative() {
+        return borderAlternative;
+    }
+
+    /**
+     * @return whether the grid edge closes off a region for dead end detection
+     */
+    boolean hasEdgeSeals() {
+        return edgeSeals;
+    }
+
+    /**
+     * @return blocked cells that do not close off a region for dead end detection
+     */
+    long getUnsealedObstacles() {
+        return unsealedObstacles;
+    }
+
+    /**
+     * Check whether at least one valid path exists, stopping at the first one found.
+     * @return true if a valid path exists. otherwise false
+     */
+    public boolean exists() {
+        return countAtLeast(1);
+    }
+
+    /**
+     * Check whether there are at least the given number of valid paths, stopping as soon as they are found.
+     * Wildcard moves are tried in Warnsdorff order so the first paths are found quickly.
+     * @param count required number of paths
+     * @return true if at least count valid paths exist. otherwise false
+     */
+    public boolean countAtLeast(long count) {
+        reset();
+        pathLimit = count;
+        preferLowDegree = true;
+
+        findTotalPaths();
+
+        pathLimit = Long.MAX_VALUE;
+        preferLowDegree = false;
+        return totalPaths >= count;
+    }
+
+    /**
+     * Count the valid paths ending at every cell in a single search. Rules that depend on the target
+     * (the forced move into a cell with one connection left and the side of the border rule) are relaxed.
+     * @return count of valid paths per ending cell, indexed by row * width + col
+     */
+    public long[] countByEndpoint() {
+        SubtreeCache targetCache = cache; // Cached counts only cover the target
+        cache = null;
+        endpointPaths = new long[totalCells];
+        precomputeBorderConstraints();
+        reset();
+
+        findTotalPaths();
+
+        long[] result = endpointPaths;
+        endpointPaths = null;
+        precomputeBorderConstraints();
+        cache = targetCache;
+        return result;
+    }
+
+    /**
+     * Stop the search at the given time
+     * @param deadline System.nanoTime() at which the search stops
+     */
+    void setDeadline(long deadline) {
+        this.deadline = deadline;
+        this.timed = true;
+    }
+
+    /**
+     * Stop a running search. Safe to call from any thread.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if the last search stopped before exploring every path. otherwise false
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * Publish the counters to JMX whenever the search polls
+     * @param telemetry counters of this search thread
+     */
+    void setTelemetry(SearchMonitor.Stripe telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * Publish the counters and check whether the search was cancelled or ran out of time
+     * @param step current step index
+     * @return true if the search must stop. otherwise false
+     */
+    private boolean checkpoint(int step) {
+        if (telemetry != null) {
+            telemetry.publish(nodes, totalPaths, connectivity, border, deadEnd, step);
+        }
+        return cancelled || (timed && System.nanoTime() - deadline >= 0);
+    }
+
     // --- MAIN ---
 
     /**
@@ -194,7 +721,7 @@ public class Algo {
      */
     private int moveToPosition(int row, int col) {
         int directionBitmask = 0b0000;
-        visitedMask |= (1L << (row * gridSize + col)); // Mark cell as visited in bitmask
+        visitedMask |= (1L << (row * width + col)); // Mark cell as visited in bitmask
 
         visitedCells[row][col] = 0;
 
@@ -203,7 +730,7 @@ public class Algo {
             int newRow = row + directionArray[i][0];
             int newCol = col + directionArray[i][1];
 
-            if (newRow >= 0 && newRow < gridSize && newCol >= 0 && newCol < gridSize && visitedCells[newRow][newCol] != 0) {
+            if (newRow >= 0 && newRow < height && newCol >= 0 && newCol < width && visitedCells[newRow][newCol] != 0) {
                 visitedCells[newRow][newCol] = Math.max(1, visitedCells[newRow][newCol] - 1);
                 directionBitmask |= (1 << i);  // Set the bit for this direction
             }
@@ -221,7 +748,7 @@ public class Algo {
      */
     private void undoMove(int row, int col, int originalValue, int directionBitmask) {
         visitedCells[row][col] = originalValue;
-        visitedMask &= ~(1L << (row * gridSize + col));
+        visitedMask &= ~(1L << (row * width + col));
 
         for (int i = 0; i < directionArray.length; i++) {
             if ((directionBitmask & (1 << i)) != 0) {
@@ -239,9 +766,24 @@ public class Algo {
      * @param col column index
      */
     private void checkEnding(int row, int col) {
-        if (row == gridSize - 1 && col == 0) { // Target: bottom-left corner
+        if (endpointPaths != null) { // Any cell may be the target
+            endpointPaths[row * width + col]++;
+            totalPaths++;
+        } else if (row == targetRow && col == targetCol) {
             totalPaths++;
         }
+
+        if (totalPaths >= pathLimit) {
+            stopped = true;
+        }
+    }
+
+    /**
+     * Find all valid paths starting from the start cell.
+     */
+    public void findTotalPaths() {
+        findTotalPaths(startRow, startCol, 0);
+        checkpoint(0); // Publish the final counters
     }
 
     /**
@@ -251,12 +793,30 @@ public class Algo {
      * @param step step index in the path
      */
     public void findTotalPaths(int row, int col, int step) {
+        // Poll for cancellation and the deadline and publish telemetry once every few thousand nodes
+        if ((++nodes & STOP_CHECK_MASK) == 0 && checkpoint(step)) {
+            stopped = true;
+            return;
+        }
+
         // If we have reached the last step, check if we end at the target cell
         if (step == maxSteps) {
             checkEnding(row, col);
             return;
         }
 
+        // Reuse the count of an identical subtree
+        boolean cached = cache != null && step < cacheSteps;
+        long pathsBefore = totalPaths;
+        if (cached) {
+            long subtreePaths = cache.get(visitedMask, row * width + col, step);
+            if (subtreePaths >= 0) {
+                totalPaths += subtreePaths;
+                stopped |= totalPaths >= pathLimit;
+                return;
+            }
+        }
+
         char command = directionCommands[step];
 
         int originalValue = visitedCells[row][col];
@@ -266,13 +826,16 @@ public class Algo {
 
         if (command == '*') {
             wildcardStepCount++;
+            int order = preferLowDegree ? orderByDegree(row, col, validMoves) : DIRECTION_ORDER;
             // Explore all directions for a wildcard step
-            for (int i = 0; i < directionArray.length; i++) {
+            for (int k = 0; k < directionArray.length && !stopped; k++) {
+                int i = (order >>> (2 * k)) & 0b11;
                 if ((validMoves & (1 << i)) != 0) { // check if the move is valid
                     int newRow = row + directionArray[i][0];
                     int newCol = col + directionArray[i][1];
 
-                    if (wildcardStepCount % 5 == 0 && validMoves > 0 && !canVisitAllRemainingCells(newRow, newCol, step + 1)) {
+                    if (wildcardStepCount % connectivityInterval == 0 && validMoves > 0 && !canVisitAllRemainingCells(newRow, newCol, step + 1, visitedMask)) {
+                        connectivity++;
                         break;
                     }
 
@@ -292,6 +855,76 @@ public class Algo {
 
         // Backtrack
         undoMove(row, col, originalValue, updatedDirections);
+
+        // A stopped search only has a partial count
+        if (cached && !stopped) {
+            cache.put(visitedMask, row * width + col, step, totalPaths - pathsBefore);
+        }
+    }
+
+    /**
+     * Count the paths completing a search state known only by its visited cells, adding them to totalPaths.
+     * The remaining connections of every cell are counted again from the bitmask.
+     * @param cell current cell index
+     * @param visited bitmask of visited cells, including the current cell
+     * @param step step index of the current cell
+     */
+    void findTotalPathsFrom(int cell, long visited, int step) {
+        visitedMask = visited & ~(1L << cell); // The search moves into the current cell itself
+        for (int index = 0; index < totalCells; index++) {
+            visitedCells[index / width][index % width] = (visitedMask & (1L << index)) != 0
+                    ? 0 : Math.max(1, Long.bitCount(neighbors[index] & ~visitedMask));
+        }
+
+        wildcardStepCount = 0;
+        for (int i = 0; i < step; i++) {
+            if (directionCommands[i] == '*') {
+                wildcardStepCount++;
+            }
+        }
+
+        findTotalPaths(cell / width, cell % width, step);
+        checkpoint(step); // Publish the counters of the subtree
+    }
+
+    /**
+     * Order the directions so valid moves into cells with the fewest remaining connections come first
+     * (Warnsdorff's rule), followed by the invalid ones.
+     * @param row row index
+     * @param col column index
+     * @param validMoves bitmask of valid directions
+     * @return directions packed 2 bits each, first direction in the lowest bits
+     */
+    private int orderByDegree(int row, int col, int validMoves) {
+        int up = sortKey(row, col, validMoves, 0);
+        int down = sortKey(row, col, validMoves, 1);
+        int left = sortKey(row, col, validMoves, 2);
+        int right = sortKey(row, col, validMoves, 3);
+
+        // Sorting network for 4 keys
+        int low = Math.min(up, down), high = Math.max(up, down);
+        up = low; down = high;
+        low = Math.min(left, right); high = Math.max(left, right);
+        left = low; right = high;
+        low = Math.min(up, left); high = Math.max(up, left);
+        up = low; left = high;
+        low = Math.min(down, right); high = Math.max(down, right);
+        down = low; right = high;
+        low = Math.min(down, left); high = Math.max(down, left);
+        down = low; left = high;
+
+        return (up & 0b11) | (down & 0b11) << 2 | (left & 0b11) << 4 | (right & 0b11) << 6;
+    }
+
+    /**
+     * Sort key of a direction: remaining connections of the neighbor, with the direction in the lowest 2 bits
+     * @return sort key, larger than any valid move for invalid directions
+     */
+    private int sortKey(int row, int col, int validMoves, int direction) {
+        if ((validMoves & (1 << direction)) == 0) {
+            return Integer.MAX_VALUE & ~0b11 | direction;
+        }
+        return visitedCells[row + directionArray[direction][0]][col + directionArray[direction][1]] << 2 | direction;
     }
 
     // --- EARLY STOPPING ---
@@ -306,67 +939,62 @@ public class Algo {
     private boolean isValidMove(int row, int col, int step) {
         return inBounds(row, col)
                 && visitedCells[row][col] != 0
-                && checkBorderConstraints(row, col)
-                && !isDeadEnd(row, col)
+                && checkBorderConstraints(row, col, visitedMask)
+                && !isDeadEnd(row, col, visitedMask)
 //                && isManhattanValid(row, col, step)
                 ;
     }
 
     /**
      * Detect dead ends where the path cannot continue.
-     * A dead end is defined here as certain blocked configurations of adjacent cells.
+     * A dead end is a cell closed off on two opposite sides with both other sides still open:
+     * entering it splits the unvisited cells in two.
      * @param row row index
      * @param col column index
+     * @param visited bitmask of visited cells
      * @return true if current cell leads to dead end. otherwise false
      */
-    private boolean isDeadEnd(int row, int col) {
-        boolean left = (col == 0) || visitedCells[row][col - 1] == 0;
-        boolean right = (col == gridSize - 1) || visitedCells[row][col + 1] == 0;
-        boolean up = (row == 0) || visitedCells[row - 1][col] == 0;
-        boolean down = (row == gridSize - 1) || visitedCells[row + 1][col] == 0;
-
-        boolean horizontalBlock = (left && right) && (!up && !down);
-        boolean verticalBlock = (up && down) && (!left && !right);
-
-        return horizontalBlock || verticalBlock;
+    private boolean isDeadEnd(int row, int col, long visited) {
+        int index = row * width + col;
+        long sealed = visited & ~unsealedObstacles; // Visited cells and blocked cells linked to the edge
+
+        boolean left = (col == 0) ? edgeSeals : (sealed & (1L << (index - 1))) != 0;
+        boolean right = (col == width - 1) ? edgeSeals : (sealed & (1L << (index + 1))) != 0;
+        boolean up = (row == 0) ? edgeSeals : (sealed & (1L << (index - width))) != 0;
+        boolean down = (row == height - 1) ? edgeSeals : (sealed & (1L << (index + width))) != 0;
+
+        boolean openLeft = col != 0 && (visited & (1L << (index - 1))) == 0;
+        boolean openRight = col != width - 1 && (visited & (1L << (index + 1))) == 0;
+        boolean openUp = row != 0 && (visited & (1L << (index - width))) == 0;
+        boolean openDown = row != height - 1 && (visited & (1L << (index + width))) == 0;
+
+        boolean horizontalBlock = (left && right) && (openUp && openDown);
+        boolean verticalBlock = (up && down) && (openLeft && openRight);
+
+        if (horizontalBlock || verticalBlock) {
+            deadEnd++;
+            return true;
+        } else {
+            return false;
+        }
     }
 
     /**
      * Ensure that certain border constraints are met.
      * @param row row index
      * @param col column index
+     * @param visited bitmask of visited cells
      * @return false if current cell violate constraints. otherwise true
      */
-    private boolean checkBorderConstraints(int row, int col) {
-        // For bottom border, all cells to the right must be visited
-        if (row == gridSize - 1) {
-            for (int x = gridSize - 1; x > col; x--) {
-                if (visitedCells[row][x] != 0) return false;
-            }
-        }
-
-        // For right border, all cells above must be visited
-        else if (col == gridSize - 1) {
-            for (int y = 0; y < row; y++) {
-                if (visitedCells[y][col] != 0) return false;
-            }
-        }
-
-        // For top border, all cells between must be visited
-        else if (row == 0) {
-            for (int x = 1; x < col; x++) {
-                if (visitedCells[row][x] != 0) return false;
-            }
-        }
-
-        // For left border, all cells above must be visited
-        else if (col == 0) {
-            for (int y = 1; y < row; y++) {
-                if (visitedCells[y][col] != 0) return false;
-            }
+    private boolean checkBorderConstraints(int row, int col, long visited) {
+        // All cells closed off by entering this cell must already be visited
+        int index = row * width + col;
+        if ((borderRequired[index] & ~visited) == 0 || (borderAlternative[index] & ~visited) == 0) {
+            return true;
         }
 
-        return true;
+        border++;
+        return false;
     }
 
     /**
@@ -375,22 +1003,23 @@ public class Algo {
      * @param row row index
      * @param col column index
      * @param step current step index
+     * @param visited bitmask of visited cells
      * @return true if the path is able to cover all cells. otherwise false
      */
-    private boolean canVisitAllRemainingCells(int row, int col, int step) {
-        int requiredCells = totalCells - step;
-        int startIndex = row * gridSize + col;
+    boolean canVisitAllRemainingCells(int row, int col, int step, long visited) {
+        int requiredCells = openCells - step;
+        int startIndex = row * width + col;
         long startMask = 1L << startIndex;
 
         // If the start cell is already visited, return false
-        if ((visitedMask & startMask) != 0) {
+        if ((visited & startMask) != 0) {
             return false;
         }
 
         // Initialize BFS state
         long reached = startMask;
         long frontier = startMask;
-        long invertedVisited = ~visitedMask;
+        long invertedVisited = ~visited;
 
         // Perform BFS to explore all reachable cells
         while (frontier != 0) {
@@ -420,6 +1049,7 @@ public class Algo {
      */
     private int getValidMoves(int row, int col, int step) {
         int validMoves = 0;
+        int lastConnections = 0; // Valid moves into cells with value == 1
         for (int i = 0; i < directionArray.length; i++) {
             int newRow = row + directionArray[i][0];
             int newCol = col + directionArray[i][1];
@@ -427,15 +1057,98 @@ public class Algo {
             if (isValidMove(newRow, newCol, step) ) {
                 // If a cell with value == 1 is found, return only that direction
                 if (visitedCells[newRow][newCol] == 1) {
-                    return (1 << i);
+                    if (endpointPaths == null) {
+                        return (1 << i);
+                    }
+                    lastConnections |= (1 << i);
                 }
                 // Otherwise accumulate all valid moves
                 validMoves |= (1 << i);
             }
         }
+
+        // When any cell may be the target, one such cell can be the last one instead:
+        // with two of them the path must enter one now and end in the other
+        if (Integer.bitCount(lastConnections) > 1) {
+            return Integer.bitCount(lastConnections) == 2 ? lastConnections : 0;
+        }
         return validMoves;
     }
 
+    /**
+     * Get a bitmask of valid moves for a search state known only by its visited cells. Applies the same rules
+     * as getValidMoves, with the remaining connections of a cell counted from the bitmask.
+     * @param cell current cell index
+     * @param visited bitmask of visited cells, including the current cell
+     * @param step step index of the next cell
+     * @return bitmask of valid directions
+     */
+    int getValidMoves(int cell, long visited, int step) {
+        int row = cell / width;
+        int col = cell % width;
+        int validMoves = 0;
+        int lastConnections = 0; // Valid moves into cells with at most one unvisited neighbor
+        for (int i = 0; i < directionArray.length; i++) {
+            int newRow = row + directionArray[i][0];
+            int newCol = col + directionArray[i][1];
+            if (!inBounds(newRow, newCol)) {
+                continue;
+            }
+
+            int next = newRow * width + newCol;
+            if ((visited & (1L << next)) == 0
+                    && checkBorderConstraints(newRow, newCol, visited)
+                    && !isDeadEnd(newRow, newCol, visited)) {
+                // If a cell with a single connection left is found, return only that direction
+                if (Long.bitCount(neighbors[next] & ~visited) <= 1) {
+                    if (endpointPaths == null) {
+                        return (1 << i);
+                    }
+                    lastConnections |= (1 << i);
+                }
+                validMoves |= (1 << i);
+            }
+        }
+
+        if (Integer.bitCount(lastConnections) > 1) {
+            return Integer.bitCount(lastConnections) == 2 ? lastConnections : 0;
+        }
+        return validMoves;
+    }
+
+    /**
+     * Expand a search state known only by its visited cells: its valid moves under a command, or none when
+     * the unvisited cells are no longer connected
+     * @param cell current cell index
+     * @param visited bitmask of visited cells, including the current cell
+     * @param step step index of the current cell
+     * @param allowedMoves directions allowed by the command at this step
+     * @return bitmask of valid directions
+     */
+    int expandState(int cell, long visited, int step, int allowedMoves) {
+        int validMoves = getValidMoves(cell, visited, step + 1) & allowedMoves;
+
+        // The unvisited cells must stay connected, whichever move is taken
+        if (validMoves != 0) {
+            int first = moveIndex(cell, Integer.numberOfTrailingZeros(validMoves));
+            if (!canVisitAllRemainingCells(first / width, first % width, step + 1, visited)) {
+                connectivity++;
+                return 0;
+            }
+        }
+        return validMoves;
+    }
+
+    /**
+     * Get the cell reached by moving in a direction
+     * @param cell cell index
+     * @param direction direction index (0 = up, 1 = down, 2 = left, 3 = right)
+     * @return index of the neighboring cell
+     */
+    int moveIndex(int cell, int direction) {
+        return cell + directionArray[direction][0] * width + directionArray[direction][1];
+    }
+
     /**
      * Determine if we should prune the search from the current cell at the given step.
      * We prune if there are not enough steps left to reach the target.
@@ -445,10 +1158,15 @@ public class Algo {
      * @return true if the current path still follow Manhattan algorithm. otherwise false
      */
     private boolean isManhattanValid(int row, int col, int step) {
-        int currentIndex = row * gridSize + col;
+        int currentIndex = row * width + col;
         int remainingSteps = maxSteps - step;
         int distanceToTarget = shortestDistancesToTarget[currentIndex];
 
-        return remainingSteps > distanceToTarget;
+        if (remainingSteps > distanceToTarget) {
+            return true;
+        }
+
+        manhattan++;
+        return false;
     }
 }
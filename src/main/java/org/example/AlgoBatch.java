@@ -0,0 +1,213 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch mode. Reads one "size,commands" query per line of a memory-mapped input file and writes one
+ * "count,nodes,micros" record per query to a memory-mapped output file, in input order. Every record
+ * has the same width, so workers write their results in place as soon as they are done. Invalid
+ * queries get a count of -1.
+ */
+public class AlgoBatch {
+    private static final int FIELD_WIDTH = 19; // Digits of the largest long
+    private static final int RECORD_BYTES = 3 * (FIELD_WIDTH + 1); // Three right aligned fields, separated by ',' and ended by '\n'
+    private static final int LINES_PER_CLAIM = 64; // Queries a worker takes at a time
+    private static final int MAX_SIZE = 8; // Largest grid that fits the 64 bit masks
+
+    /**
+     * Answer every query of the input file
+     * @param input file of "size,commands" lines
+     * @param output file receiving one "count,nodes,micros" line per query
+     * @param threads number of worker threads
+     * @return number of queries
+     * @throws IOException if a file cannot be read or written
+     */
+    public static int run(Path input, Path output, int threads) throws IOException {
+        MappedByteBuffer in;
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Input must be smaller than 2 GB");
+            }
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int[] lineStarts = indexLines(in);
+        int lines = lineStarts.length - 1;
+        if ((long) lines * RECORD_BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Output must be smaller than 2 GB");
+        }
+
+        MappedByteBuffer out;
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) lines * RECORD_BYTES);
+        }
+
+        // Workers claim blocks of lines until none are left
+        AtomicInteger nextLine = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Future<?>[] workers = new Future<?>[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = executor.submit(() -> {
+                    Grid[] grids = new Grid[MAX_SIZE + 1]; // Grid of each size, reused across queries
+                    int first;
+                    while ((first = nextLine.getAndAdd(LINES_PER_CLAIM)) < lines) {
+                        for (int line = first; line < Math.min(lines, first + LINES_PER_CLAIM); line++) {
+                            answer(in, lineStarts[line], lineStarts[line + 1], grids, out, line * RECORD_BYTES);
+                        }
+                    }
+                });
+            }
+
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Batch interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Batch failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        out.force();
+        return lines;
+    }
+
+    /**
+     * Find where every line starts. A last line without '\n' still counts.
+     * @param in input file contents
+     * @return start offset of every line, followed by the end of the input
+     */
+    private static int[] indexLines(MappedByteBuffer in) {
+        int limit = in.limit();
+        int[] starts = new int[1024];
+        int lines = 0;
+
+        for (int pos = 0; pos < limit; ) {
+            if (lines + 1 >= starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            starts[lines++] = pos;
+            while (pos < limit && in.get(pos) != '\n') {
+                pos++;
+            }
+            pos++; // Skip the '\n'
+        }
+
+        starts[lines] = limit;
+        return Arrays.copyOf(starts, lines + 1);
+    }
+
+    /**
+     * Parse one query, count its paths and write its record
+     * @param in input file contents
+     * @param start offset of the line
+     * @param end offset of the next line
+     * @param grids reusable grids of the worker, by size
+     * @param out output file contents
+     * @param record offset of the record
+     */
+    private static void answer(MappedByteBuffer in, int start, int end, Grid[] grids,
+                               MappedByteBuffer out, int record) {
+        // Trim the line ending
+        while (end > start && (in.get(end - 1) == '\n' || in.get(end - 1) == '\r')) {
+            end--;
+        }
+
+        // Parse the size
+        int pos = start;
+        int size = 0;
+        while (pos < end && in.get(pos) >= '0' && in.get(pos) <= '9' && size <= MAX_SIZE) {
+            size = size * 10 + (in.get(pos++) - '0');
+        }
+        if (pos == start || pos == end || in.get(pos) != ',' || size < 1 || size > MAX_SIZE
+                || end - pos - 1 != size * size - 1) {
+            writeRecord(out, record, -1, 0, 0);
+            return;
+        }
+        pos++; // Skip the ','
+
+        // Load the commands into the grid of that size
+        Grid grid = grids[size];
+        if (grid == null) {
+            grid = new Grid(size, "*".repeat(size * size - 1));
+            grids[size] = grid;
+        }
+        for (int step = 0; pos + step < end; step++) {
+            char command = (char) in.get(pos + step);
+            if ("*UDLR".indexOf(command) < 0) {
+                writeRecord(out, record, -1, 0, 0);
+                return;
+            }
+            grid.setCommand(step, command);
+        }
+
+        long startTime = System.nanoTime();
+        grid.reset();
+        grid.findTotalPaths();
+        long micros = (System.nanoTime() - startTime) / 1000;
+
+        writeRecord(out, record, grid.totalPaths, grid.nodes, micros);
+    }
+
+    /**
+     * Write a "count,nodes,micros" record with right aligned fields
+     */
+    private static void writeRecord(MappedByteBuffer out, int record, long count, long nodes, long micros) {
+        writeField(out, record, count);
+        out.put(record + FIELD_WIDTH, (byte) ',');
+        writeField(out, record + FIELD_WIDTH + 1, nodes);
+        out.put(record + 2 * FIELD_WIDTH + 1, (byte) ',');
+        writeField(out, record + 2 * (FIELD_WIDTH + 1), micros);
+        out.put(record + RECORD_BYTES - 1, (byte) '\n');
+    }
+
+    /**
+     * Write a number right aligned in a field of spaces, without creating a String
+     */
+    private static void writeField(MappedByteBuffer out, int field, long value) {
+        boolean negative = value < 0;
+        long rest = Math.abs(value);
+        int pos = field + FIELD_WIDTH - 1;
+
+        do {
+            out.put(pos--, (byte) ('0' + rest % 10));
+            rest /= 10;
+        } while (rest > 0);
+        if (negative) {
+            out.put(pos--, (byte) '-');
+        }
+        while (pos >= field) {
+            out.put(pos--, (byte) ' ');
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: AlgoBatch <input> <output> [threads]");
+            return;
+        }
+
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        long startTime = System.currentTimeMillis();
+        int queries = run(Path.of(args[0]), Path.of(args[1]), threads);
+        long endTime = System.currentTimeMillis();
+
+        System.out.println("Queries: " + queries);
+        System.out.println("Total time: " + (endTime - startTime) + "ms");
+    }
+}
@@ -0,0 +1,217 @@
+package org.example;
+
+import java.nio.file.Path;
+
+/**
+ * Main class
+ */
+public class AlgoByLevels {
+    static final long MEMORY_BUDGET = 256L << 20; // Bytes each level may keep in memory
+
+    /**
+     * Execution function
+     * @param size grid size (N x N)
+     * @param commands command string (must be (N^2)-1 in length)
+     */
+    public static void calculatePath(int size, String commands) {
+        int totalMoves = size * size - 1; // Total steps needed to complete the path
+
+        // Validate the input length
+        if (commands.length() != totalMoves) {
+            System.out.println("Invalid input!");
+            System.out.println("Please insert " + totalMoves + " characters total!");
+            System.out.println("Insert " + (totalMoves - commands.length()) + " more characters");
+            return;
+        }
+
+        // Initialize the grid and compute paths
+        long precomputedStartTime = System.currentTimeMillis();
+        LevelGrid levelGrid = new LevelGrid(new Grid(size, commands), commands, MEMORY_BUDGET,
+                Path.of(System.getProperty("java.io.tmpdir")));
+        long precomputedEndTime = System.currentTimeMillis();
+
+        System.out.println("Precomputed time: " + (precomputedEndTime - precomputedStartTime) + "ms");
+
+        long startTime = System.currentTimeMillis();
+        levelGrid.findTotalPaths();
+        long endTime = System.currentTimeMillis();
+
+        // Output the results
+        System.out.println("Total paths: " + levelGrid.totalPaths);
+        System.out.println("Total time: " + (endTime - startTime) + "ms");
+        System.out.println("States: " + levelGrid.states + " (widest level " + levelGrid.widestLevel + ")");
+        System.out.println("Spilled runs: " + levelGrid.spilledRuns);
+    }
+
+    public static void main(String[] args) {
+        int gridSize = 8; // Dimension of the grid (NxN)
+
+        // Case 1: All '*' (wildcard moves)
+//        String directionCommands = "***************************************************************";
+
+        // Case 2: Mixed commands with specific directions (uncomment to test)
+        String directionCommands = "*****DR******R******R********************R*D************L******";
+
+        calculatePath(gridSize, directionCommands);
+    }
+}
+
+
+/**
+ *  Level synchronous search. All live states advance one command at a time, and states that reach the
+ *  same cell with the same visited cells are merged, so each of them is expanded once however many
+ *  prefixes lead to it.
+ */
+class LevelGrid {
+    private static final int PUBLISH_MASK = (1 << 12) - 1; // Publish telemetry once every 4096 states
+
+    private final Grid grid; // Precomputed board and pruning rules
+    private final char[] directionCommands; // Input command sequence ('*', 'U', 'D', 'L', 'R')
+    private final long memoryBudget; // Bytes each level may keep in memory before spilling to disk
+    private final Path spillDirectory; // Directory receiving spilled runs
+    private final ExpansionKernel kernel; // Expands a batch of states at once
+    private SearchMonitor.Stripe telemetry; // Optional JMX counters, published every few thousand states
+
+    // States waiting for the kernel
+    private final int[] batchCells = new int[ExpansionKernel.BATCH];
+    private final long[] batchMasks = new long[ExpansionKernel.BATCH];
+    private final long[] batchCounts = new long[ExpansionKernel.BATCH];
+    private final int[] batchMoves = new int[ExpansionKernel.BATCH];
+
+    public long totalPaths = 0; // Count of valid paths
+    public long states = 0; // Merged states expanded over all levels
+    public long widestLevel = 0; // Most merged states in a single level
+    public long spilledRuns = 0; // Sorted runs written to disk
+
+    /**
+     * Initialize the search
+     * @param grid board and pruning rules
+     * @param commands the commands in string
+     * @param memoryBudget bytes each level may keep in memory before spilling to disk
+     * @param spillDirectory directory receiving spilled runs
+     */
+    public LevelGrid(Grid grid, String commands, long memoryBudget, Path spillDirectory) {
+        this.grid = grid;
+        this.directionCommands = commands.toCharArray();
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+        this.kernel = ExpansionKernel.create(grid);
+    }
+
+    /**
+     * Publish the states expanded, the current level and the paths found to JMX
+     * @param telemetry counters of this search thread
+     */
+    void setTelemetry(SearchMonitor.Stripe telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * Publish the counters if a monitor is set
+     * @param expanded merged states expanded so far
+     * @param step current level
+     */
+    private void publish(long expanded, int step) {
+        if (telemetry != null) {
+            telemetry.publish(expanded, totalPaths, grid.connectivity, grid.border, grid.deadEnd, step);
+        }
+    }
+
+    /**
+     * Advance every state one command at a time and count the states ending at the target.
+     * @throws java.io.UncheckedIOException if spilling to disk fails
+     */
+    public void findTotalPaths() {
+        int maxSteps = grid.getMaxSteps();
+
+        StateLevel level = initialLevel();
+        for (int step = 0; step < maxSteps; step++) {
+            level = advance(level, step);
+        }
+
+        // Every state left has visited all cells; keep the ones ending at the target
+        int target = grid.getTargetIndex();
+        try (StateLevel.Cursor cursor = level.cursor()) {
+            while (cursor.next()) {
+                states++;
+                if (cursor.cell() == target) {
+                    totalPaths += cursor.count();
+                }
+            }
+        } finally {
+            spilledRuns += level.getRuns();
+            level.close();
+        }
+        publish(states, maxSteps); // Publish the final counters
+    }
+
+    /**
+     * @return level holding the start state only
+     */
+    StateLevel initialLevel() {
+        int start = grid.getStartIndex();
+        StateLevel level = new StateLevel(memoryBudget, spillDirectory);
+        level.add(start, grid.getObstacleMask() | (1L << start), 1);
+        return level;
+    }
+
+    /**
+     * Apply one command to every state of a level. The level is closed afterwards.
+     * @param level states before the command
+     * @param step index of the command
+     * @return merged states after the command
+     */
+    StateLevel advance(StateLevel level, int step) {
+        char command = directionCommands[step];
+        int allowedMoves = command == '*' ? 0b1111 : 1 << "UDLR".indexOf(command);
+
+        StateLevel nextLevel = new StateLevel(memoryBudget, spillDirectory);
+        long levelStates = 0;
+        try (StateLevel.Cursor cursor = level.cursor()) {
+            int pending = 0;
+            while (cursor.next()) {
+                batchCells[pending] = cursor.cell();
+                batchMasks[pending] = cursor.mask();
+                batchCounts[pending] = cursor.count();
+                if ((++levelStates & PUBLISH_MASK) == 0) {
+                    publish(states + levelStates, step);
+                }
+
+                if (++pending == ExpansionKernel.BATCH) {
+                    expand(pending, step, allowedMoves, nextLevel);
+                    pending = 0;
+                }
+            }
+            expand(pending, step, allowedMoves, nextLevel);
+        } finally {
+            spilledRuns += level.getRuns();
+            level.close();
+        }
+
+        states += levelStates;
+        widestLevel = Math.max(widestLevel, levelStates);
+        publish(states, step + 1);
+        return nextLevel;
+    }
+
+    /**
+     * Expand the pending states and add their successors to the next level
+     * @param pending number of pending states
+     * @param step index of the command
+     * @param allowedMoves directions allowed by the command
+     * @param nextLevel states after the command
+     */
+    private void expand(int pending, int step, int allowedMoves, StateLevel nextLevel) {
+        kernel.expand(batchCells, batchMasks, pending, step, allowedMoves, batchMoves);
+
+        for (int state = 0; state < pending; state++) {
+            int validMoves = batchMoves[state];
+            for (int i = 0; i < 4; i++) {
+                if ((validMoves & (1 << i)) != 0) {
+                    int next = grid.moveIndex(batchCells[state], i);
+                    nextLevel.add(next, batchMasks[state] | (1L << next), batchCounts[state]);
+                }
+            }
+        }
+    }
+}
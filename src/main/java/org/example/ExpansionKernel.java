@@ -0,0 +1,62 @@
+package org.example;
+
+/**
+ *  Expands a batch of search states of the same step at once: the valid moves of every state under the
+ *  current command, or none when the unvisited cells are no longer connected. Uses the same rules, and
+ *  counts the same prunes, as Grid.expandState with a single target cell.
+ */
+interface ExpansionKernel {
+    int BATCH = 256; // Most states expanded by one call
+
+    /**
+     * Expand a batch of states
+     * @param cells current cell of each state
+     * @param visited visited cells of each state, including the current cell
+     * @param count number of states
+     * @param step step index of every state
+     * @param allowedMoves directions allowed by the command at this step
+     * @param moves receives the valid directions of each state
+     */
+    void expand(int[] cells, long[] visited, int count, int step, int allowedMoves, int[] moves);
+
+    /**
+     * Use the Vector API kernel when the jdk.incubator.vector module is present (java --add-modules
+     * jdk.incubator.vector) and not disabled with -Dorg.example.vector=false, otherwise the scalar one.
+     * The vector kernel is slow until the JIT has compiled it, so it pays off in long searches and long
+     * running JVMs rather than in a single short search.
+     * @param grid board and pruning rules
+     * @return kernel for the grid
+     */
+    static ExpansionKernel create(Grid grid) {
+        if (Boolean.parseBoolean(System.getProperty("org.example.vector", "true"))
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // Loaded by name so the class never links without the module
+                return (ExpansionKernel) Class.forName("org.example.VectorExpansionKernel")
+                        .getDeclaredConstructor(Grid.class).newInstance(grid);
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // Fall through to the scalar kernel
+            }
+        }
+        return new ScalarExpansionKernel(grid);
+    }
+}
+
+
+/**
+ *  One state at a time, with Grid.expandState
+ */
+class ScalarExpansionKernel implements ExpansionKernel {
+    private final Grid grid; // Board and pruning rules
+
+    public ScalarExpansionKernel(Grid grid) {
+        this.grid = grid;
+    }
+
+    @Override
+    public void expand(int[] cells, long[] visited, int count, int step, int allowedMoves, int[] moves) {
+        for (int i = 0; i < count; i++) {
+            moves[i] = grid.expandState(cells[i], visited[i], step, allowedMoves);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.example;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Library entry point counting paths asynchronously. Every call searches its own grid on the executor,
+ * so several counts can run at once. Cancelling the returned future stops its search, and a search that
+ * passes its deadline completes with the paths found so far.
+ */
+public class PathCounter {
+    private final Executor executor; // Runs the searches
+
+    /**
+     * Initialize a counter running on the common fork join pool
+     */
+    public PathCounter() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Initialize a counter
+     * @param executor runs the searches
+     */
+    public PathCounter(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Count the paths without a deadline
+     * @param size grid size (N x N)
+     * @param commands command string (must be (N^2)-1 in length)
+     * @return future of the result
+     */
+    public CompletableFuture<PathResult> count(int size, String commands) {
+        return count(size, commands, null);
+    }
+
+    /**
+     * Count the paths
+     * @param size grid size (N x N)
+     * @param commands command string (must be (N^2)-1 in length)
+     * @param timeout time after which the search stops with a partial count, or null for none
+     * @return future of the result
+     */
+    public CompletableFuture<PathResult> count(int size, String commands, Duration timeout) {
+        return count(size, size, 0L, 0, 0, size - 1, 0, commands, timeout);
+    }
+
+    /**
+     * Count the paths on a rectangular grid with blocked cells
+     * @param width number of columns
+     * @param height number of rows
+     * @param obstacles bitmask of blocked cells (bit row * width + col)
+     * @param startRow row of the start cell
+     * @param startCol column of the start cell
+     * @param targetRow row of the target cell
+     * @param targetCol column of the target cell
+     * @param commands command string (must be (open cells - 1) in length)
+     * @param timeout time after which the search stops with a partial count, or null for none
+     * @return future of the result
+     * @throws IllegalArgumentException if the grid or the command length is invalid
+     */
+    public CompletableFuture<PathResult> count(int width, int height, long obstacles, int startRow, int startCol,
+                                               int targetRow, int targetCol, String commands, Duration timeout) {
+        Grid grid = new Grid(width, height, obstacles, startRow, startCol, targetRow, targetCol, commands);
+        if (commands.length() != grid.getMaxSteps()) {
+            throw new IllegalArgumentException("Please insert " + grid.getMaxSteps() + " characters total!");
+        }
+
+        CompletableFuture<PathResult> future = new CompletableFuture<>();
+        // Cancelling the future (or completing it by other means) stops the search
+        future.whenComplete((result, error) -> grid.cancel());
+
+        // Registered before the deadline starts, since the first registration starts the MBean server
+        SearchMonitor monitor = SearchMonitor.register("PathCounter", grid.getMaxSteps(), 1);
+        grid.setTelemetry(monitor.stripe(0));
+
+        // The deadline counts from the call, so time spent queued on the executor is included
+        if (timeout != null) {
+            grid.setDeadline(System.nanoTime() + timeout.toNanos());
+        }
+
+        try {
+            executor.execute(() -> {
+                try (monitor) {
+                    search(grid, future);
+                }
+            });
+        } catch (RuntimeException e) {
+            monitor.close();
+            throw e;
+        }
+
+        return future;
+    }
+
+    /**
+     * Run a search and complete its future, unless the future was completed before the search started
+     * @param grid grid to search
+     * @param future future of the result
+     */
+    private static void search(Grid grid, CompletableFuture<PathResult> future) {
+        if (future.isDone()) { // Cancelled before it started
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        try {
+            grid.findTotalPaths();
+        } catch (Throwable error) {
+            future.completeExceptionally(error);
+            return;
+        }
+
+        long endTime = System.nanoTime();
+        PathResult.Status status = grid.isStopped()
+                ? PathResult.Status.DEADLINE_EXCEEDED
+                : PathResult.Status.COMPLETED;
+
+        future.complete(new PathResult(grid.totalPaths, grid.nodes, Duration.ofNanos(endTime - startTime),
+                grid.connectivity, grid.border, grid.deadEnd, status));
+    }
+}
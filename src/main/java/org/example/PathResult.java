@@ -0,0 +1,93 @@
+package org.example;
+
+import java.time.Duration;
+
+/**
+ * Result of a path count: the count, search statistics and whether the search finished.
+ */
+public final class PathResult {
+    /**
+     * How a search ended
+     */
+    public enum Status {
+        COMPLETED, // Every path was explored, the count is exact
+        DEADLINE_EXCEEDED // The deadline passed, the count is a lower bound
+    }
+
+    private final long totalPaths; // Count of valid paths found
+    private final long nodes; // Number of search nodes visited
+    private final Duration elapsed; // Time spent searching
+    private final long connectivity; // Branches pruned by the connectivity check
+    private final long border; // Moves pruned by the border constraints
+    private final long deadEnd; // Moves pruned by the dead end rule
+    private final Status status; // How the search ended
+
+    PathResult(long totalPaths, long nodes, Duration elapsed,
+               long connectivity, long border, long deadEnd, Status status) {
+        this.totalPaths = totalPaths;
+        this.nodes = nodes;
+        this.elapsed = elapsed;
+        this.connectivity = connectivity;
+        this.border = border;
+        this.deadEnd = deadEnd;
+        this.status = status;
+    }
+
+    /**
+     * @return count of valid paths found
+     */
+    public long getTotalPaths() {
+        return totalPaths;
+    }
+
+    /**
+     * @return number of search nodes visited
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return time spent searching
+     */
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return branches pruned by the connectivity check
+     */
+    public long getConnectivityPrunes() {
+        return connectivity;
+    }
+
+    /**
+     * @return moves pruned by the border constraints
+     */
+    public long getBorderPrunes() {
+        return border;
+    }
+
+    /**
+     * @return moves pruned by the dead end rule
+     */
+    public long getDeadEndPrunes() {
+        return deadEnd;
+    }
+
+    /**
+     * @return how the search ended
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    @Override
+    public String toString() {
+        return "Total paths: " + totalPaths + " (" + status + ")"
+                + ", nodes: " + nodes
+                + ", time: " + elapsed.toMillis() + "ms"
+                + ", prunes (connectivity/border/dead end): "
+                + connectivity + "/" + border + "/" + deadEnd;
+    }
+}
@@ -0,0 +1,270 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Draws valid paths uniformly at random. The exact number of completions of every search state is
+ * counted once over the same pruned search space as findTotalPaths; each path is then drawn from the
+ * start by picking every move with probability proportional to the paths below it.
+ */
+public class PathSampler {
+    private static final String DIRECTIONS = "UDLR"; // Direction letters by direction index
+
+    private final Grid grid; // Precomputed board and pruning rules
+    private final char[] directionCommands; // Input command sequence ('*', 'U', 'D', 'L', 'R')
+    private final int maxSteps; // Steps of every path
+    private final int target; // Index of the target cell
+    private final CountTable table = new CountTable(); // Completions of every search state
+    private final long totalPaths; // Count of valid paths
+
+    /**
+     * Count the paths of a grid
+     * @param size grid size (N x N)
+     * @param commands command string (must be (N^2)-1 in length)
+     */
+    public PathSampler(int size, String commands) {
+        this(size, size, 0L, 0, 0, size - 1, 0, commands);
+    }
+
+    /**
+     * Count the paths of a rectangular grid with blocked cells
+     * @param width number of columns
+     * @param height number of rows
+     * @param obstacles bitmask of blocked cells (bit row * width + col)
+     * @param startRow row of the start cell
+     * @param startCol column of the start cell
+     * @param targetRow row of the target cell
+     * @param targetCol column of the target cell
+     * @param commands command string (must be (open cells - 1) in length)
+     */
+    public PathSampler(int width, int height, long obstacles, int startRow, int startCol,
+                       int targetRow, int targetCol, String commands) {
+        this.grid = new Grid(width, height, obstacles, startRow, startCol, targetRow, targetCol, commands);
+        this.maxSteps = grid.getMaxSteps();
+        if (commands.length() != maxSteps) {
+            throw new IllegalArgumentException("Please insert " + maxSteps + " characters total!");
+        }
+
+        this.directionCommands = commands.toCharArray();
+        this.target = grid.getTargetIndex();
+        int start = grid.getStartIndex();
+        this.totalPaths = countPaths(start, obstacles | (1L << start), 0);
+    }
+
+    /**
+     * @return count of valid paths
+     */
+    public long getTotalPaths() {
+        return totalPaths;
+    }
+
+    /**
+     * Count the completions of a search state, remembering every state's count
+     * @param cell current cell index
+     * @param visited bitmask of visited cells, including the current cell
+     * @param step step index of the current cell
+     * @return number of valid paths through the state
+     */
+    private long countPaths(int cell, long visited, int step) {
+        if (step == maxSteps) {
+            return cell == target ? 1 : 0;
+        }
+
+        long known = table.get(cell, visited);
+        if (known >= 0) {
+            return known;
+        }
+
+        char command = directionCommands[step];
+        int allowedMoves = command == '*' ? 0b1111 : 1 << DIRECTIONS.indexOf(command);
+        int validMoves = grid.expandState(cell, visited, step, allowedMoves);
+
+        long paths = 0;
+        for (int i = 0; i < 4; i++) {
+            if ((validMoves & (1 << i)) != 0) {
+                int next = grid.moveIndex(cell, i);
+                paths += countPaths(next, visited | (1L << next), step + 1);
+            }
+        }
+
+        table.put(cell, visited, paths);
+        return paths;
+    }
+
+    /**
+     * Completions of a state already counted. Pruned moves lead to states without completions,
+     * so states that were never counted have none.
+     */
+    private long completions(int cell, long visited, int step) {
+        if (step == maxSteps) {
+            return cell == target ? 1 : 0;
+        }
+        return Math.max(0, table.get(cell, visited));
+    }
+
+    /**
+     * Draw one valid path uniformly at random, in O(path length)
+     * @param random source of randomness, used by the calling thread only
+     * @return the path as a string of 'U', 'D', 'L', 'R' moves
+     */
+    public String sample(SplittableRandom random) {
+        if (totalPaths == 0) {
+            throw new IllegalStateException("No valid path to sample");
+        }
+
+        char[] path = new char[maxSteps];
+        int cell = grid.getStartIndex();
+        long visited = grid.getObstacleMask() | (1L << cell);
+        long remaining = totalPaths;
+
+        for (int step = 0; step < maxSteps; step++) {
+            // Pick the move whose share of the remaining paths contains the draw
+            long draw = random.nextLong(remaining);
+            long open = grid.getNeighbors(cell) & ~visited;
+            char command = directionCommands[step];
+
+            for (int i = 0; i < 4; i++) {
+                int next = grid.moveIndex(cell, i);
+                if ((command != '*' && command != DIRECTIONS.charAt(i))
+                        || next < 0 || next >= Long.SIZE || (open & (1L << next)) == 0) {
+                    continue;
+                }
+
+                long paths = completions(next, visited | (1L << next), step + 1);
+                if (draw < paths) {
+                    path[step] = DIRECTIONS.charAt(i);
+                    cell = next;
+                    visited |= (1L << next);
+                    remaining = paths;
+                    break;
+                }
+                draw -= paths;
+            }
+        }
+
+        return new String(path);
+    }
+
+    /**
+     * Draw many valid paths uniformly at random in parallel. Every thread draws from its own split of
+     * the random generator, so the result only depends on the seed and the number of threads.
+     * @param count number of paths
+     * @param seed seed of the random generator
+     * @param threads number of threads drawing
+     * @return the paths as strings of 'U', 'D', 'L', 'R' moves
+     */
+    public String[] sample(int count, long seed, int threads) {
+        String[] paths = new String[count];
+        SplittableRandom root = new SplittableRandom(seed);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            Future<?>[] parts = new Future<?>[threads];
+            for (int part = 0; part < threads; part++) {
+                SplittableRandom random = root.split();
+                int from = (int) ((long) count * part / threads);
+                int to = (int) ((long) count * (part + 1) / threads);
+                parts[part] = executor.submit(() -> {
+                    for (int i = from; i < to; i++) {
+                        paths[i] = sample(random);
+                    }
+                });
+            }
+
+            for (Future<?> part : parts) {
+                part.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Sampling interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Sampling failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return paths;
+    }
+
+    public static void main(String[] args) {
+        int gridSize = 8; // Dimension of the grid (NxN)
+        String directionCommands = "*****DR******R******R********************R*D************L******";
+
+        long startTime = System.currentTimeMillis();
+        PathSampler sampler = new PathSampler(gridSize, directionCommands);
+        long countedTime = System.currentTimeMillis();
+        String[] paths = sampler.sample(1_000_000, 42L, Runtime.getRuntime().availableProcessors());
+        long endTime = System.currentTimeMillis();
+
+        System.out.println("Total paths: " + sampler.getTotalPaths());
+        System.out.println("Counting time: " + (countedTime - startTime) + "ms");
+        System.out.println("Sampling time: " + (endTime - countedTime) + "ms for " + paths.length + " paths");
+        System.out.println("First sample: " + paths[0]);
+    }
+
+    /**
+     *  Open addressing table from search states to their completion counts
+     */
+    private static class CountTable {
+        private long[] masks = new long[1 << 10]; // Visited cells of each slot
+        private long[] counts = new long[1 << 10]; // Completions of each slot
+        private byte[] cells = filledCells(1 << 10); // Current cell of each slot (-1 = empty)
+        private int states = 0; // Occupied slots
+
+        private static byte[] filledCells(int slots) {
+            byte[] cells = new byte[slots];
+            Arrays.fill(cells, (byte) -1);
+            return cells;
+        }
+
+        private int find(int cell, long mask) {
+            int last = cells.length - 1;
+            int slot = StateHash.slot(cell, mask, cells.length);
+            while (cells[slot] != -1 && (masks[slot] != mask || cells[slot] != cell)) {
+                slot = (slot + 1) & last;
+            }
+            return slot;
+        }
+
+        /**
+         * @return completions of the state, or -1 if it was never counted
+         */
+        long get(int cell, long mask) {
+            int slot = find(cell, mask);
+            return cells[slot] == -1 ? -1 : counts[slot];
+        }
+
+        void put(int cell, long mask, long count) {
+            int slot = find(cell, mask);
+            if (cells[slot] == -1) {
+                states++;
+            }
+            masks[slot] = mask;
+            cells[slot] = (byte) cell;
+            counts[slot] = count;
+
+            // Keep the table at most half full
+            if (states * 2 > cells.length) {
+                long[] oldMasks = masks;
+                long[] oldCounts = counts;
+                byte[] oldCells = cells;
+                masks = new long[oldCells.length * 2];
+                counts = new long[oldCells.length * 2];
+                cells = filledCells(oldCells.length * 2);
+                for (int i = 0; i < oldCells.length; i++) {
+                    if (oldCells[i] != -1) {
+                        int newSlot = find(oldCells[i], oldMasks[i]);
+                        masks[newSlot] = oldMasks[i];
+                        cells[newSlot] = oldCells[i];
+                        counts[newSlot] = oldCounts[i];
+                    }
+                }
+            }
+        }
+    }
+}
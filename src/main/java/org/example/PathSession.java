@@ -0,0 +1,125 @@
+package org.example;
+
+import java.util.Scanner;
+
+/**
+ * Interactive session over one command string. Subtree counts of earlier searches are kept in a
+ * memory bounded cache, so after editing the command at position k only the states up to step k
+ * are searched again and every later subtree that still exists is taken from the cache.
+ */
+public class PathSession {
+    static final int DEFAULT_CACHE_ENTRIES = 1 << 20; // About 22 MB of cache
+    static final int UNCACHED_STEPS = 12; // Subtrees this close to the end are cheaper to search than to cache
+
+    private final Grid grid; // Grid searched by the session
+    private final SubtreeCache cache; // Subtree counts shared by all searches of the session
+    private final char[] commands; // Current command string
+
+    private long totalPaths = -1; // Result for the current commands (-1 = not searched yet)
+
+    /**
+     * Initialize a session
+     * @param size grid size (N x N)
+     * @param commands command string (must be (N^2)-1 in length)
+     */
+    public PathSession(int size, String commands) {
+        this(size, size, 0L, 0, 0, size - 1, 0, commands, DEFAULT_CACHE_ENTRIES);
+    }
+
+    /**
+     * Initialize a session on a rectangular grid with blocked cells
+     * @param width number of columns
+     * @param height number of rows
+     * @param obstacles bitmask of blocked cells (bit row * width + col)
+     * @param startRow row of the start cell
+     * @param startCol column of the start cell
+     * @param targetRow row of the target cell
+     * @param targetCol column of the target cell
+     * @param commands command string (must be (open cells - 1) in length)
+     * @param cacheEntries maximum number of cached subtree counts
+     */
+    public PathSession(int width, int height, long obstacles, int startRow, int startCol,
+                       int targetRow, int targetCol, String commands, int cacheEntries) {
+        this.grid = new Grid(width, height, obstacles, startRow, startCol, targetRow, targetCol, commands);
+        if (commands.length() != grid.getMaxSteps()) {
+            throw new IllegalArgumentException("Please insert " + grid.getMaxSteps() + " characters total!");
+        }
+
+        this.commands = commands.toCharArray();
+        this.cache = new SubtreeCache(cacheEntries, grid.getMaxSteps());
+        grid.useCache(cache, grid.getMaxSteps() - UNCACHED_STEPS);
+    }
+
+    /**
+     * Count the valid paths for the current commands, searching only if they changed
+     * @return number of valid paths
+     */
+    public long count() {
+        if (totalPaths < 0) {
+            grid.reset();
+            grid.findTotalPaths();
+            totalPaths = grid.totalPaths;
+        }
+        return totalPaths;
+    }
+
+    /**
+     * Replace one command and count the valid paths again
+     * @param position index of the command
+     * @param command new command ('*', 'U', 'D', 'L', 'R')
+     * @return number of valid paths for the edited commands
+     */
+    public long edit(int position, char command) {
+        if (position < 0 || position >= commands.length) {
+            throw new IllegalArgumentException("Position must be between 0 and " + (commands.length - 1));
+        }
+        if ("*UDLR".indexOf(command) < 0) {
+            throw new IllegalArgumentException("Command must be one of *, U, D, L, R");
+        }
+
+        if (commands[position] != command) {
+            commands[position] = command;
+            grid.setCommand(position, command);
+            cache.invalidate(position);
+            totalPaths = -1;
+        }
+        return count();
+    }
+
+    /**
+     * @return current command string
+     */
+    public String getCommands() {
+        return new String(commands);
+    }
+
+    /**
+     * @return number of subtrees answered from the cache so far
+     */
+    public long getCacheHits() {
+        return cache.hits;
+    }
+
+    public static void main(String[] args) {
+        int gridSize = 8; // Dimension of the grid (NxN)
+        String directionCommands = "*****DR******R******R********************R*D************L******";
+
+        PathSession session = new PathSession(gridSize, directionCommands);
+        System.out.println("Total paths: " + session.count());
+
+        // Read edits as "<position> <command>", one per line
+        Scanner scanner = new Scanner(System.in);
+        while (scanner.hasNextInt()) {
+            int position = scanner.nextInt();
+            char command = scanner.next().charAt(0);
+
+            long startTime = System.currentTimeMillis();
+            long totalPaths = session.edit(position, command);
+            long endTime = System.currentTimeMillis();
+
+            System.out.println(session.getCommands());
+            System.out.println("Total paths: " + totalPaths);
+            System.out.println("Total time: " + (endTime - startTime) + "ms");
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package org.example;
+
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+
+/**
+ *  Picks the search strategy for one query. The command string gives the wildcard density and the
+ *  position of the fixed runs, and random probes estimate the size of the search tree. Each strategy's
+ *  cost is estimated from these and the cheapest one is run.
+ */
+class QueryPlanner {
+    enum Strategy {
+        DFS, // Depth first search on a single grid
+        MEMOIZED, // Depth first search reusing the counts of identical subtrees
+        LEVELS, // Level synchronous search with merged states
+        PARALLEL // Levels up to a frontier, then depth first search of its subtrees on several threads
+    }
+
+    // Costs measured on 5x5 to 8x8 boards; only their ratios decide
+    private static final double NANOS_PER_NODE = 350; // Depth first search, per estimated tree node
+    private static final double NANOS_PER_STATE = 460; // Level synchronous search, per estimated merged state
+    private static final double NANOS_PER_CACHED_STATE = 1400; // Memoized search, per estimated merged state
+    private static final double LEVEL_SETUP_NANOS = 2e5; // Allocating the table of every level
+    private static final double CACHE_SETUP_NANOS = 5e6; // Allocating the subtree cache
+    private static final double THREAD_SETUP_NANOS = 1e6; // Starting one worker
+    private static final double NANOS_PER_THREAD = 20e6; // Least work worth another worker
+
+    // Merged states grow like STATE_SCALE * nodes ^ MERGE_EXPONENT, fitted on the same boards
+    private static final double STATE_SCALE = 3;
+    private static final double MERGE_EXPONENT = 0.8;
+
+    private static final int PROBES = 512; // Random walks estimating the tree size
+    private static final long PROBE_SEED = 0x5EEDL; // Same probes, so the same plan, for the same query
+    private static final double DENSE_WILDCARDS = 0.9; // Wildcard density above which connectivity is checked less often
+    private static final int STATES_PER_THREAD = 32; // Frontier states per worker, so uneven subtrees even out
+
+    private final int width; // Number of columns
+    private final int height; // Number of rows
+    private final long obstacles; // Bitmask of blocked cells
+    private final int startRow; // Row of the start cell
+    private final int startCol; // Column of the start cell
+    private final int targetRow; // Row of the target cell
+    private final int targetCol; // Column of the target cell
+    private final String commands; // Input command sequence
+    private final Grid grid; // Grid probed, and searched unless the plan runs in parallel
+
+    // Features of the query
+    private double wildcardDensity; // Share of wildcard commands
+    private int longestFixedRun; // Most consecutive fixed commands
+    private int firstFixed; // Index of the first fixed command
+    private int wildcardTail; // Wildcard commands after the last fixed one
+    private double[] levelWidths; // Estimated tree nodes at each step
+    private double estimatedNodes; // Estimated depth first search nodes
+    private double estimatedStates; // Estimated merged states over all levels
+
+    // The plan
+    private Strategy strategy = Strategy.DFS; // Chosen strategy
+    private int threads = 1; // Worker threads
+    private int connectivityInterval = 5; // Wildcard steps between connectivity checks
+    private int splitSteps = 0; // Commands applied before splitting into parallel subtrees
+    private final double[] estimatedNanos = new double[Strategy.values().length]; // Estimated cost of each strategy
+
+    public long nodes = 0; // Search nodes (merged states for LEVELS) visited by the chosen strategy
+
+    /**
+     * Plan a query on a rectangular grid with blocked cells
+     * @param width number of columns
+     * @param height number of rows
+     * @param obstacles bitmask of blocked cells (bit row * width + col)
+     * @param startRow row of the start cell
+     * @param startCol column of the start cell
+     * @param targetRow row of the target cell
+     * @param targetCol column of the target cell
+     * @param commands command string (must be (open cells - 1) in length)
+     * @param availableThreads most threads the plan may use
+     */
+    public QueryPlanner(int width, int height, long obstacles, int startRow, int startCol,
+                        int targetRow, int targetCol, String commands, int availableThreads) {
+        this.width = width;
+        this.height = height;
+        this.obstacles = obstacles;
+        this.startRow = startRow;
+        this.startCol = startCol;
+        this.targetRow = targetRow;
+        this.targetCol = targetCol;
+        this.commands = commands;
+        this.grid = newGrid();
+        if (commands.length() != grid.getMaxSteps()) {
+            throw new IllegalArgumentException("Please insert " + grid.getMaxSteps() + " characters total!");
+        }
+
+        readCommands();
+        probeTree();
+        choose(availableThreads);
+    }
+
+    /**
+     * @return a fresh grid for the query
+     */
+    private Grid newGrid() {
+        return new Grid(width, height, obstacles, startRow, startCol, targetRow, targetCol, commands);
+    }
+
+    /**
+     * Measure the wildcard density and where the fixed commands are
+     */
+    private void readCommands() {
+        int wildcards = 0;
+        int run = 0;
+        firstFixed = -1;
+        for (int step = 0; step < commands.length(); step++) {
+            if (commands.charAt(step) == '*') {
+                wildcards++;
+                wildcardTail++;
+                run = 0;
+            } else {
+                if (firstFixed < 0) {
+                    firstFixed = step;
+                }
+                wildcardTail = 0;
+                longestFixedRun = Math.max(longestFixedRun, ++run);
+            }
+        }
+        wildcardDensity = commands.isEmpty() ? 1 : (double) wildcards / commands.length();
+    }
+
+    /**
+     * Estimate the tree size from random walks (Knuth's estimator): every walk picks one valid move per step,
+     * and the product of the branching factors seen so far estimates the number of nodes at each step.
+     */
+    private void probeTree() {
+        int maxSteps = grid.getMaxSteps();
+        SplittableRandom random = new SplittableRandom(PROBE_SEED);
+        levelWidths = new double[maxSteps + 1];
+
+        for (int probe = 0; probe < PROBES; probe++) {
+            int cell = grid.getStartIndex();
+            long visited = grid.getObstacleMask() | (1L << cell);
+            double weight = 1;
+            levelWidths[0]++;
+
+            for (int step = 0; step < maxSteps; step++) {
+                int validMoves = expand(cell, visited, step);
+                if (validMoves == 0) {
+                    break;
+                }
+
+                weight *= Integer.bitCount(validMoves);
+                levelWidths[step + 1] += weight;
+
+                // Follow one of the valid moves
+                for (int skip = random.nextInt(Integer.bitCount(validMoves)); skip > 0; skip--) {
+                    validMoves &= validMoves - 1;
+                }
+                cell = grid.moveIndex(cell, Integer.numberOfTrailingZeros(validMoves));
+                visited |= 1L << cell;
+            }
+        }
+
+        for (int step = 0; step <= maxSteps; step++) {
+            levelWidths[step] /= PROBES;
+            estimatedNodes += levelWidths[step];
+        }
+    }
+
+    /**
+     * Get the valid moves of a state, or none if the unvisited cells are no longer connected
+     * @param cell current cell index
+     * @param visited bitmask of visited cells, including the current cell
+     * @param step step index of the current cell
+     * @return bitmask of valid directions
+     */
+    private int expand(int cell, long visited, int step) {
+        char command = commands.charAt(step);
+        int allowedMoves = command == '*' ? 0b1111 : 1 << "UDLR".indexOf(command);
+        return grid.expandState(cell, visited, step, allowedMoves);
+    }
+
+    /**
+     * Estimate the cost of every strategy and keep the cheapest
+     * @param availableThreads most threads the plan may use
+     */
+    private void choose(int availableThreads) {
+        connectivityInterval = wildcardDensity >= DENSE_WILDCARDS ? 8 : 5;
+        estimatedStates = Math.min(estimatedNodes, STATE_SCALE * Math.pow(estimatedNodes, MERGE_EXPONENT));
+
+        double dfsNanos = estimatedNodes * NANOS_PER_NODE;
+        estimatedNanos[Strategy.DFS.ordinal()] = dfsNanos;
+        estimatedNanos[Strategy.MEMOIZED.ordinal()] = estimatedStates * NANOS_PER_CACHED_STATE + CACHE_SETUP_NANOS;
+        estimatedNanos[Strategy.LEVELS.ordinal()] = estimatedStates * NANOS_PER_STATE + LEVEL_SETUP_NANOS;
+
+        // Only worth several threads if each of them gets enough work
+        int workers = (int) Math.min(availableThreads, dfsNanos / NANOS_PER_THREAD);
+        estimatedNanos[Strategy.PARALLEL.ordinal()] = workers > 1
+                ? dfsNanos / workers + workers * THREAD_SETUP_NANOS : Double.POSITIVE_INFINITY;
+
+        for (Strategy candidate : Strategy.values()) {
+            if (estimatedNanos[candidate.ordinal()] < estimatedNanos[strategy.ordinal()]) {
+                strategy = candidate;
+            }
+        }
+
+        if (strategy == Strategy.PARALLEL) {
+            threads = workers;
+
+            // Split where the tree is wide enough to keep every worker busy, past any fixed prefix
+            int maxSteps = grid.getMaxSteps();
+            splitSteps = maxSteps / 2;
+            for (int step = 0; step < maxSteps / 2; step++) {
+                if (levelWidths[step] >= workers * STATES_PER_THREAD) {
+                    splitSteps = step;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return chosen strategy
+     */
+    Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return worker threads of the plan
+     */
+    int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Register the JMX monitor of the search, with a stripe per planned thread. Done before timing the search,
+     * since the first registration starts the MBean server.
+     * @return registered monitor, to be closed when the search ends
+     */
+    public SearchMonitor register() {
+        return SearchMonitor.register("Algo", grid.getMaxSteps(), threads);
+    }
+
+    /**
+     * Run the chosen strategy
+     * @param monitor JMX counters from register(), or null
+     * @return number of valid paths
+     */
+    public long count(SearchMonitor monitor) {
+        grid.reset(); // Forget the counters of the probes
+        SearchMonitor.Stripe stripe = monitor == null ? null : monitor.stripe(0);
+
+        if (strategy == Strategy.LEVELS) {
+            LevelGrid levels = new LevelGrid(grid, commands, AlgoByLevels.MEMORY_BUDGET,
+                    Path.of(System.getProperty("java.io.tmpdir")));
+            levels.setTelemetry(stripe);
+            levels.findTotalPaths();
+            nodes = levels.states;
+            return levels.totalPaths;
+        }
+
+        if (strategy == Strategy.PARALLEL) {
+            SplitGrid split = new SplitGrid(() -> {
+                Grid worker = newGrid();
+                worker.setConnectivityInterval(connectivityInterval);
+                return worker;
+            }, commands, splitSteps, threads);
+            split.findTotalPaths(monitor);
+            nodes = split.nodes;
+            return split.totalPaths;
+        }
+
+        if (strategy == Strategy.MEMOIZED) {
+            grid.useCache(new SubtreeCache(PathSession.DEFAULT_CACHE_ENTRIES, grid.getMaxSteps()),
+                    grid.getMaxSteps() - PathSession.UNCACHED_STEPS);
+        }
+        grid.setConnectivityInterval(connectivityInterval);
+        grid.setTelemetry(stripe);
+        grid.findTotalPaths(); // Start from the start cell
+        nodes = grid.nodes;
+        return grid.totalPaths;
+    }
+
+    /**
+     * @return the plan, the estimated cost of every strategy and the features they were estimated from
+     */
+    @Override
+    public String toString() {
+        StringBuilder plan = new StringBuilder(strategy.name());
+        if (strategy == Strategy.PARALLEL) {
+            plan.append(" (").append(threads).append(" threads, split after ").append(splitSteps).append(" steps)");
+        }
+        if (strategy != Strategy.LEVELS) {
+            plan.append(", connectivity every ").append(connectivityInterval).append(" wildcard steps");
+        }
+
+        plan.append(", estimated");
+        for (Strategy candidate : Strategy.values()) {
+            double nanos = estimatedNanos[candidate.ordinal()];
+            plan.append(' ').append(candidate.name()).append(' ')
+                    .append(Double.isInfinite(nanos) ? "-" : Math.round(nanos / 1e6) + "ms");
+        }
+
+        return plan
+                + String.format(" (%.3g nodes, %.3g states)", estimatedNodes, estimatedStates)
+                + String.format(", wildcard density %.2f, longest fixed run %d, first fixed %d, wildcard tail %d",
+                        wildcardDensity, longestFixedRun, firstFixed, wildcardTail);
+    }
+}
@@ -0,0 +1,497 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent store of path counts in a memory-mapped file. Counts are deterministic, so a query that was
+ * answered before is looked up instead of searched again.
+ * <p>
+ * The file holds a header, a hash index and an append-only log of records. A record keeps the 128-bit digest
+ * of the query, its count, its node total, the engine version and a checksum. Records of another engine
+ * version are ignored, and the log is compacted to drop them when the writer opens it or when it is full.
+ * <p>
+ * One process at a time writes, holding a lock on the file; any number of readers may look up at the same
+ * time. A record is flushed before the header publishes it and the index points to it only afterwards, so a
+ * crash at any point leaves every published record intact. The writer indexes the whole log again on open.
+ * Readers check the checksum of every record they return, so a record being compacted reads as absent.
+ * <p>
+ * Records are only checked against corruption, not forgery: keep the file where only its users can write.
+ */
+public final class ResultStore implements Closeable {
+    private static final long MAGIC = 0x414C474F53544F52L; // "ALGOSTOR"
+    private static final long FORMAT = 2; // Layout of the file and digest of the queries
+    static final int DEFAULT_CAPACITY = 1 << 16; // Records of a new store, about 4 MB
+
+    // Header fields, in longs
+    private static final int MAGIC_FIELD = 0; // MAGIC once the file is initialized
+    private static final int FORMAT_FIELD = 1; // FORMAT of the file
+    private static final int CAPACITY_FIELD = 2; // Records the log can hold
+    private static final int COMMITTED_FIELD = 3; // Records published so far
+    private static final int HEADER_BYTES = 64;
+
+    // Record fields, in longs
+    private static final int DIGEST_HIGH = 0;
+    private static final int DIGEST_LOW = 1;
+    private static final int COUNT = 2;
+    private static final int NODES = 3;
+    private static final int VERSION = 4;
+    private static final int CHECKSUM = 5; // CRC32 of the fields before it
+    private static final int RECORD_FIELDS = 6;
+    private static final int RECORD_BYTES = RECORD_FIELDS * Long.BYTES;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // Store files open in this JVM. Closing any channel of a file drops the lock of every other one,
+    // so all stores of a file share a single channel.
+    private static final Map<Path, SharedFile> OPEN_FILES = new HashMap<>();
+
+    private final Path path; // Absolute path of the store file
+    private final FileChannel channel; // Open store file
+    private final boolean writer; // Whether this store holds the write lock
+    private final MappedByteBuffer buffer; // Store contents, null when a reader finds no store
+    private final int capacity; // Records the log can hold
+    private final int slots; // Index slots, a power of two at least twice the capacity
+    private final int logOffset; // Position of the first record
+
+    /**
+     * Open a store, creating it if needed. The first process to open it writes; later ones only read.
+     * @param file store file
+     * @param capacity records a new store can hold; an existing store keeps its own
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public ResultStore(Path file, int capacity) throws IOException {
+        if (capacity < 1 || capacity > 1 << 24) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + (1 << 24));
+        }
+
+        this.path = file.toAbsolutePath().normalize();
+        synchronized (OPEN_FILES) {
+            SharedFile shared = OPEN_FILES.get(path);
+            if (shared == null) {
+                shared = new SharedFile(path);
+                OPEN_FILES.put(path, shared);
+            }
+            shared.users++;
+            this.channel = shared.channel;
+            this.writer = shared.lock != null && !shared.writing;
+            shared.writing |= writer;
+        }
+
+        try {
+            // Use the existing store if its header is valid, otherwise a writer starts a new one
+            MappedByteBuffer contents = null;
+            if (channel.size() >= HEADER_BYTES) {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+                if ((long) LONGS.getAcquire(header, MAGIC_FIELD * Long.BYTES) == MAGIC
+                        && (long) LONGS.get(header, FORMAT_FIELD * Long.BYTES) == FORMAT) {
+                    capacity = (int) (long) LONGS.get(header, CAPACITY_FIELD * Long.BYTES);
+                    contents = channel.map(writer ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                            0, fileSize(capacity));
+                }
+            }
+            if (contents == null && writer) {
+                channel.truncate(0);
+                contents = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(capacity));
+                LONGS.set(contents, FORMAT_FIELD * Long.BYTES, FORMAT);
+                LONGS.set(contents, CAPACITY_FIELD * Long.BYTES, (long) capacity);
+                contents.force();
+                LONGS.setRelease(contents, MAGIC_FIELD * Long.BYTES, MAGIC);
+                contents.force(0, HEADER_BYTES);
+            }
+
+            this.buffer = contents;
+            this.capacity = capacity;
+            this.slots = slotCount(capacity);
+            this.logOffset = HEADER_BYTES + slots * Long.BYTES;
+
+            // Index any record published before a crash left it out of the index, and drop stale records
+            if (writer) {
+                reindex();
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return index slots for a capacity
+     */
+    private static int slotCount(int capacity) {
+        return Integer.highestOneBit(capacity) << 2;
+    }
+
+    /**
+     * @return bytes of a store holding capacity records
+     */
+    private static long fileSize(int capacity) {
+        return HEADER_BYTES + (long) slotCount(capacity) * Long.BYTES + (long) capacity * RECORD_BYTES;
+    }
+
+    /**
+     * @return whether this store can add records
+     */
+    public boolean isWritable() {
+        return writer;
+    }
+
+    /**
+     * Look up the result of a query on an N x N grid
+     * @param size grid size (N x N)
+     * @param commands command string
+     * @return stored result of the current engine version, or null
+     */
+    public Record get(int size, String commands) {
+        return get(size, size, 0L, 0, 0, size - 1, 0, commands);
+    }
+
+    /**
+     * Look up the result of a query
+     * @param width number of columns
+     * @param height number of rows
+     * @param obstacles bitmask of blocked cells (bit row * width + col)
+     * @param startRow row of the start cell
+     * @param startCol column of the start cell
+     * @param targetRow row of the target cell
+     * @param targetCol column of the target cell
+     * @param commands command string
+     * @return stored result of the current engine version, or null
+     */
+    public Record get(int width, int height, long obstacles, int startRow, int startCol,
+                      int targetRow, int targetCol, String commands) {
+        if (buffer == null) {
+            return null;
+        }
+
+        long[] digest = digest(width, height, obstacles, startRow, startCol, targetRow, targetCol, commands);
+        long[] fields = find(digest[0], digest[1]);
+        if (fields == null || fields[VERSION] != Grid.ENGINE_VERSION) {
+            return null; // Records of another engine version no longer count
+        }
+        return new Record(fields[COUNT], fields[NODES], (int) fields[VERSION]);
+    }
+
+    /**
+     * Store the result of a query
+     * @param width number of columns
+     * @param height number of rows
+     * @param obstacles bitmask of blocked cells (bit row * width + col)
+     * @param startRow row of the start cell
+     * @param startCol column of the start cell
+     * @param targetRow row of the target cell
+     * @param targetCol column of the target cell
+     * @param commands command string
+     * @param totalPaths count of valid paths
+     * @param nodes search nodes visited
+     * @return false if the store is read only or full of current records, otherwise true
+     */
+    public synchronized boolean put(int width, int height, long obstacles, int startRow, int startCol,
+                                    int targetRow, int targetCol, String commands, long totalPaths, long nodes) {
+        if (!writer || committed() == capacity && compact() == capacity) {
+            return false;
+        }
+        int record = (int) committed();
+
+        // Write and flush the record, then publish it, then index it
+        long[] digest = digest(width, height, obstacles, startRow, startCol, targetRow, targetCol, commands);
+        long[] fields = new long[RECORD_FIELDS];
+        fields[DIGEST_HIGH] = digest[0];
+        fields[DIGEST_LOW] = digest[1];
+        fields[COUNT] = totalPaths;
+        fields[NODES] = nodes;
+        fields[VERSION] = Grid.ENGINE_VERSION;
+        write(record, fields);
+
+        LONGS.setRelease(buffer, COMMITTED_FIELD * Long.BYTES, (long) record + 1);
+        buffer.force(0, HEADER_BYTES);
+
+        buffer.force(HEADER_BYTES + index(record) * Long.BYTES, Long.BYTES);
+        return true;
+    }
+
+    /**
+     * Point the index at a record, replacing an earlier record of the same query
+     * @param record record number
+     * @return slot of the query
+     */
+    private int index(int record) {
+        long high = field(record, DIGEST_HIGH);
+        long low = field(record, DIGEST_LOW);
+        int slot = (int) ((high ^ low) * 0x9E3779B97F4A7C15L >>> 32) & (slots - 1);
+        while (true) {
+            int position = HEADER_BYTES + slot * Long.BYTES;
+            long entry = (long) LONGS.getAcquire(buffer, position);
+            if (entry == 0) {
+                LONGS.setRelease(buffer, position, (long) record + 1);
+                return slot;
+            }
+
+            // Keep the latest record of the query
+            int indexed = (int) (entry - 1);
+            if (field(indexed, DIGEST_HIGH) == high && field(indexed, DIGEST_LOW) == low) {
+                if (indexed < record) {
+                    LONGS.setRelease(buffer, position, (long) record + 1);
+                }
+                return slot;
+            }
+            slot = (slot + 1) & (slots - 1);
+        }
+    }
+
+    /**
+     * Rebuild the index from the intact published records
+     */
+    private void reindex() {
+        for (int slot = 0; slot < slots; slot++) {
+            LONGS.setRelease(buffer, HEADER_BYTES + slot * Long.BYTES, 0L);
+        }
+        for (int record = 0; record < committed(); record++) {
+            if (checksum(read(record)) == field(record, CHECKSUM)) {
+                index(record);
+            }
+        }
+        buffer.force(HEADER_BYTES, slots * Long.BYTES);
+    }
+
+    /**
+     * Drop the records of other engine versions, torn records and records of a query stored again later.
+     * Records only move to lower positions, each flushed before the header shrinks the log, so a crash leaves
+     * every current record in the log at least once.
+     * @return records left
+     */
+    private int compact() {
+        int committed = (int) committed();
+        BitSet current = new BitSet(committed);
+        for (int record = 0; record < committed; record++) {
+            long[] fields = read(record);
+            current.set(record, fields[VERSION] == Grid.ENGINE_VERSION && fields[CHECKSUM] == checksum(fields)
+                    && indexed(fields[DIGEST_HIGH], fields[DIGEST_LOW]) == record);
+        }
+        int kept = current.cardinality();
+        if (kept == committed) {
+            return committed;
+        }
+
+        for (int record = current.nextSetBit(0), position = 0; record >= 0; record = current.nextSetBit(record + 1)) {
+            if (record != position) {
+                write(position, read(record));
+            }
+            position++;
+        }
+        LONGS.setRelease(buffer, COMMITTED_FIELD * Long.BYTES, (long) kept);
+        buffer.force(0, HEADER_BYTES);
+        reindex();
+        return kept;
+    }
+
+    /**
+     * Find the record the index holds for a digest, without checking it
+     * @return record number, or -1 if absent
+     */
+    private int indexed(long high, long low) {
+        int slot = (int) ((high ^ low) * 0x9E3779B97F4A7C15L >>> 32) & (slots - 1);
+        for (int probe = 0; probe < slots; probe++) {
+            long entry = (long) LONGS.getAcquire(buffer, HEADER_BYTES + slot * Long.BYTES);
+            if (entry == 0) {
+                return -1;
+            }
+            int record = (int) (entry - 1);
+            if (field(record, DIGEST_HIGH) == high && field(record, DIGEST_LOW) == low) {
+                return record;
+            }
+            slot = (slot + 1) & (slots - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Find the published record of a digest. The record is copied before it is checked, so a record changed
+     * meanwhile by the writer fails its checksum instead of mixing two queries.
+     * @return fields of the record, or null if absent
+     */
+    private long[] find(long high, long low) {
+        long committed = committed();
+        int slot = (int) ((high ^ low) * 0x9E3779B97F4A7C15L >>> 32) & (slots - 1);
+        for (int probe = 0; probe < slots; probe++) {
+            long entry = (long) LONGS.getAcquire(buffer, HEADER_BYTES + slot * Long.BYTES);
+            if (entry == 0) {
+                return null;
+            }
+
+            int record = (int) (entry - 1);
+            if (record < committed) {
+                long[] fields = read(record);
+                if (fields[DIGEST_HIGH] == high && fields[DIGEST_LOW] == low && fields[CHECKSUM] == checksum(fields)) {
+                    return fields;
+                }
+            }
+            slot = (slot + 1) & (slots - 1);
+        }
+        return null;
+    }
+
+    /**
+     * @return records published so far
+     */
+    private long committed() {
+        return (long) LONGS.getAcquire(buffer, COMMITTED_FIELD * Long.BYTES);
+    }
+
+    /**
+     * @return one field of a record
+     */
+    private long field(int record, int field) {
+        return (long) LONGS.get(buffer, logOffset + record * RECORD_BYTES + field * Long.BYTES);
+    }
+
+    /**
+     * @return copy of every field of a record
+     */
+    private long[] read(int record) {
+        long[] fields = new long[RECORD_FIELDS];
+        for (int field = 0; field < RECORD_FIELDS; field++) {
+            fields[field] = field(record, field);
+        }
+        return fields;
+    }
+
+    /**
+     * Write a record with the checksum of its fields and flush it
+     * @param record record number
+     * @param fields fields of the record; the checksum is set here
+     */
+    private void write(int record, long[] fields) {
+        fields[CHECKSUM] = checksum(fields);
+        int position = logOffset + record * RECORD_BYTES;
+        for (int field = 0; field < RECORD_FIELDS; field++) {
+            LONGS.set(buffer, position + field * Long.BYTES, fields[field]);
+        }
+        buffer.force(position, RECORD_BYTES);
+    }
+
+    /**
+     * @return CRC32 of the fields of a record before the checksum, in file byte order
+     */
+    private static long checksum(long[] fields) {
+        ByteBuffer bytes = ByteBuffer.allocate(CHECKSUM * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int field = 0; field < CHECKSUM; field++) {
+            bytes.putLong(fields[field]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.flip());
+        return crc.getValue();
+    }
+
+    /**
+     * Digest a query: the first 128 bits of the SHA-256 of its layout and its exact commands, since the search
+     * counts every command string as given
+     * @return high and low 64 bits
+     */
+    private static long[] digest(int width, int height, long obstacles, int startRow, int startCol,
+                                 int targetRow, int targetCol, String commands) {
+        byte[] exact = commands.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer query = ByteBuffer.allocate(6 * Integer.BYTES + Long.BYTES + exact.length)
+                .putInt(width).putInt(height).putLong(obstacles)
+                .putInt(startRow).putInt(startCol).putInt(targetRow).putInt(targetCol)
+                .put(exact);
+
+        try {
+            ByteBuffer hash = ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(query.array()));
+            return new long[]{hash.getLong(), hash.getLong()};
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required by every Java platform", e);
+        }
+    }
+
+    /**
+     * Close the store. The file and its lock are released once every store of the file in this JVM is closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (OPEN_FILES) {
+            SharedFile shared = OPEN_FILES.get(path);
+            shared.writing &= !writer;
+            if (--shared.users == 0) {
+                OPEN_FILES.remove(path);
+                channel.close(); // Releases the lock too
+            }
+        }
+    }
+
+    /**
+     * Channel and write lock of a store file, shared by every store of the file in this JVM
+     */
+    private static final class SharedFile {
+        private final FileChannel channel; // Open store file
+        private final FileLock lock; // Write lock, null if another process writes
+        private boolean writing = false; // Whether a store of this JVM is the writer
+        private int users = 0; // Open stores of the file
+
+        private SharedFile(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            FileLock writeLock;
+            try {
+                writeLock = channel.tryLock();
+            } catch (IOException | OverlappingFileLockException e) {
+                writeLock = null; // Another process writes
+            }
+            this.lock = writeLock;
+        }
+    }
+
+    /**
+     * Stored result of a query
+     */
+    public static final class Record {
+        private final long totalPaths; // Count of valid paths
+        private final long nodes; // Search nodes visited
+        private final int engineVersion; // Engine version that found the result
+
+        Record(long totalPaths, long nodes, int engineVersion) {
+            this.totalPaths = totalPaths;
+            this.nodes = nodes;
+            this.engineVersion = engineVersion;
+        }
+
+        /**
+         * @return count of valid paths
+         */
+        public long getTotalPaths() {
+            return totalPaths;
+        }
+
+        /**
+         * @return search nodes visited
+         */
+        public long getNodes() {
+            return nodes;
+        }
+
+        /**
+         * @return engine version that found the result
+         */
+        public int getEngineVersion() {
+            return engineVersion;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.example;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * JMX view of one running search. Every search thread keeps its counters in plain fields and publishes
+ * them into its own stripe every few thousand nodes with ordered writes, so reading the MBean never
+ * touches the search's hot loop and searching threads never share a cache line. There is no counter for
+ * the Manhattan distance rule, which Grid does not apply.
+ */
+public class SearchMonitor implements SearchMonitorMBean, AutoCloseable {
+    private static final AtomicLong SEARCH_IDS = new AtomicLong(); // Source of unique MBean names
+
+    private final ObjectName name; // Registered MBean name
+    private final Stripe[] stripes; // One per search thread
+    private final long startTime; // System.nanoTime() when the search started
+    private volatile long endTime = 0; // System.nanoTime() when the search ended (0 = running)
+
+    private long lastReadNodes = 0; // Nodes at the previous rate read
+    private long lastReadTime; // System.nanoTime() of the previous rate read
+
+    /**
+     * Register a monitor for a new search
+     * @param type label of the search in the MBean name
+     * @param maxSteps steps required to traverse the grid
+     * @param threads number of threads searching
+     * @return registered monitor, to be closed when the search ends
+     */
+    public static SearchMonitor register(String type, int maxSteps, int threads) {
+        try {
+            ObjectName name = new ObjectName("org.example:type=Search,name=" + type + "-" + SEARCH_IDS.incrementAndGet());
+            SearchMonitor monitor = new SearchMonitor(name, maxSteps, threads);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(monitor, name);
+            return monitor;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register search monitor", e);
+        }
+    }
+
+    private SearchMonitor(ObjectName name, int maxSteps, int threads) {
+        this.name = name;
+        this.stripes = new Stripe[threads];
+        for (int i = 0; i < threads; i++) {
+            stripes[i] = new Stripe(maxSteps);
+        }
+        this.startTime = System.nanoTime();
+        this.lastReadTime = startTime;
+    }
+
+    /**
+     * @param thread index of the search thread
+     * @return stripe the thread publishes into
+     */
+    Stripe stripe(int thread) {
+        return stripes[thread];
+    }
+
+    /**
+     * Mark the search as ended and unregister the MBean
+     */
+    @Override
+    public void close() {
+        endTime = System.nanoTime();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not unregister search monitor", e);
+        }
+    }
+
+    /**
+     * Add up one counter over all stripes
+     * @param counter index of the counter
+     * @return total of the counter
+     */
+    private long sum(int counter) {
+        long total = 0;
+        for (Stripe stripe : stripes) {
+            total += stripe.counters.get(counter);
+        }
+        return total;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return endTime == 0;
+    }
+
+    @Override
+    public long getElapsedMillis() {
+        long end = endTime;
+        return ((end == 0 ? System.nanoTime() : end) - startTime) / 1_000_000;
+    }
+
+    @Override
+    public long getNodes() {
+        return sum(Stripe.NODES);
+    }
+
+    @Override
+    public synchronized double getNodesPerSecond() {
+        long now = endTime == 0 ? System.nanoTime() : endTime;
+        long nodes = getNodes();
+        double rate = now == lastReadTime ? 0 : (nodes - lastReadNodes) * 1e9 / (now - lastReadTime);
+        lastReadNodes = nodes;
+        lastReadTime = now;
+        return rate;
+    }
+
+    @Override
+    public long getTotalPaths() {
+        return sum(Stripe.TOTAL_PATHS);
+    }
+
+    @Override
+    public long getConnectivityPrunes() {
+        return sum(Stripe.CONNECTIVITY);
+    }
+
+    @Override
+    public long getBorderPrunes() {
+        return sum(Stripe.BORDER);
+    }
+
+    @Override
+    public long getDeadEndPrunes() {
+        return sum(Stripe.DEAD_END);
+    }
+
+    @Override
+    public int getCurrentDepth() {
+        int depth = 0;
+        for (Stripe stripe : stripes) {
+            depth = Math.max(depth, (int) stripe.counters.get(Stripe.DEPTH));
+        }
+        return depth;
+    }
+
+    @Override
+    public long[] getDepthSamples() {
+        long[] samples = new long[stripes[0].depthSamples.length()];
+        for (Stripe stripe : stripes) {
+            for (int step = 0; step < samples.length; step++) {
+                samples[step] += stripe.depthSamples.get(step);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Counters published by a single search thread. Only that thread writes them.
+     */
+    static class Stripe {
+        static final int NODES = 0;
+        static final int TOTAL_PATHS = 1;
+        static final int CONNECTIVITY = 2;
+        static final int BORDER = 3;
+        static final int DEAD_END = 4;
+        static final int DEPTH = 5;
+        private static final int PADDED_LENGTH = 16; // Keeps stripes of different threads on separate cache lines
+
+        private final AtomicLongArray counters = new AtomicLongArray(PADDED_LENGTH);
+        private final AtomicLongArray depthSamples; // Times the search was found at each step index
+
+        // Earlier work of the thread and the weight of its current subtree, added to what the search reports
+        private long baseNodes = 0; // Nodes of an earlier phase of the search
+        private long basePaths = 0; // Weighted paths of the subtrees already counted
+        private long pathOffset = 0; // Paths the search had found when the current subtree started
+        private long pathWeight = 1; // Paths each path of the current subtree stands for
+
+        private Stripe(int maxSteps) {
+            this.depthSamples = new AtomicLongArray(maxSteps + 1);
+        }
+
+        /**
+         * Count the nodes of an earlier phase of the search in every later publish
+         * @param nodes nodes of the earlier phase
+         */
+        void carryNodes(long nodes) {
+            baseNodes = nodes;
+        }
+
+        /**
+         * Weight the paths of a subtree standing for several merged states
+         * @param paths weighted paths of the subtrees already counted
+         * @param offset paths the search has found before this subtree
+         * @param weight paths each path of this subtree stands for
+         */
+        void weightPaths(long paths, long offset, long weight) {
+            basePaths = paths;
+            pathOffset = offset;
+            pathWeight = weight;
+        }
+
+        /**
+         * Publish the current counters of the search thread
+         */
+        void publish(long nodes, long totalPaths, long connectivity, long border, long deadEnd, int depth) {
+            counters.lazySet(NODES, baseNodes + nodes);
+            counters.lazySet(TOTAL_PATHS, basePaths + (totalPaths - pathOffset) * pathWeight);
+            counters.lazySet(CONNECTIVITY, connectivity);
+            counters.lazySet(BORDER, border);
+            counters.lazySet(DEAD_END, deadEnd);
+            counters.lazySet(DEPTH, depth);
+            depthSamples.lazySet(depth, depthSamples.get(depth) + 1);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.example;
+
+/**
+ * Live telemetry of a running search, exposed over JMX
+ */
+public interface SearchMonitorMBean {
+    /**
+     * @return true while the search is running. otherwise false
+     */
+    boolean isRunning();
+
+    /**
+     * @return milliseconds since the search started
+     */
+    long getElapsedMillis();
+
+    /**
+     * @return number of search nodes visited so far
+     */
+    long getNodes();
+
+    /**
+     * @return nodes visited per second since the previous read (or since the start on the first read)
+     */
+    double getNodesPerSecond();
+
+    /**
+     * @return count of valid paths found so far
+     */
+    long getTotalPaths();
+
+    /**
+     * @return branches pruned by the connectivity check
+     */
+    long getConnectivityPrunes();
+
+    /**
+     * @return moves pruned by the border constraints
+     */
+    long getBorderPrunes();
+
+    /**
+     * @return moves pruned by the dead end rule
+     */
+    long getDeadEndPrunes();
+
+    /**
+     * @return step index the search was at when it last reported
+     */
+    int getCurrentDepth();
+
+    /**
+     * @return how often the search was found at each step index, sampled every few thousand nodes
+     */
+    long[] getDepthSamples();
+}
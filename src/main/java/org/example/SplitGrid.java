@@ -0,0 +1,124 @@
+package org.example;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ *  Root splitting parallel search. The first commands are applied level by level with merged states,
+ *  then the subtrees of the frontier states are counted by depth first search, each worker on its own grid.
+ */
+class SplitGrid {
+    private static final long MEMORY_BUDGET = 64L << 20; // Bytes the frontier levels may keep in memory
+
+    private final Supplier<Grid> grids; // Creates the grid of each worker
+    private final String commands; // Input command sequence
+    private final int splitSteps; // Commands applied before splitting
+    private final int threads; // Number of worker threads
+
+    public long totalPaths = 0; // Count of valid paths
+    public long frontier = 0; // Merged states whose subtrees were counted in parallel
+    public long nodes = 0; // Search nodes visited by all workers
+
+    /**
+     * Initialize the search
+     * @param grids creates a fresh grid for the same layout and commands
+     * @param commands the commands in string
+     * @param splitSteps commands applied before splitting
+     * @param threads number of worker threads
+     */
+    public SplitGrid(Supplier<Grid> grids, String commands, int splitSteps, int threads) {
+        this.grids = grids;
+        this.commands = commands;
+        this.splitSteps = splitSteps;
+        this.threads = threads;
+    }
+
+    /**
+     * Expand the first levels and count the subtrees of the frontier in parallel
+     * @param monitor JMX counters with one stripe per thread, or null
+     */
+    public void findTotalPaths(SearchMonitor monitor) {
+        LevelGrid levels = new LevelGrid(grids.get(), commands, MEMORY_BUDGET,
+                Path.of(System.getProperty("java.io.tmpdir")));
+        levels.setTelemetry(monitor == null ? null : monitor.stripe(0));
+        StateLevel level = levels.initialLevel();
+        for (int step = 0; step < splitSteps; step++) {
+            level = levels.advance(level, step);
+        }
+
+        // Collect the frontier
+        int[] cells = new int[1024];
+        long[] masks = new long[1024];
+        long[] counts = new long[1024];
+        int states = 0;
+        try (StateLevel.Cursor cursor = level.cursor()) {
+            while (cursor.next()) {
+                if (states == cells.length) {
+                    cells = Arrays.copyOf(cells, states * 2);
+                    masks = Arrays.copyOf(masks, states * 2);
+                    counts = Arrays.copyOf(counts, states * 2);
+                }
+                cells[states] = cursor.cell();
+                masks[states] = cursor.mask();
+                counts[states] = cursor.count();
+                states++;
+            }
+        } finally {
+            level.close();
+        }
+        frontier = states;
+        if (monitor != null) {
+            monitor.stripe(0).carryNodes(levels.states); // Worker 0 continues the stripe of the levels
+        }
+
+        // Workers take frontier states one at a time, so large subtrees do not hold up the others
+        AtomicInteger nextState = new AtomicInteger();
+        int frontierStates = states;
+        int[] frontierCells = cells;
+        long[] frontierMasks = masks;
+        long[] frontierCounts = counts;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[]>> workers = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                SearchMonitor.Stripe stripe = monitor == null ? null : monitor.stripe(i);
+                workers.add(executor.submit(() -> {
+                    Grid grid = grids.get();
+                    grid.setTelemetry(stripe);
+                    long paths = 0;
+                    int state;
+                    while ((state = nextState.getAndIncrement()) < frontierStates) {
+                        long before = grid.totalPaths;
+                        if (stripe != null) {
+                            stripe.weightPaths(paths, before, frontierCounts[state]);
+                        }
+                        grid.findTotalPathsFrom(frontierCells[state], frontierMasks[state], splitSteps);
+                        paths += (grid.totalPaths - before) * frontierCounts[state];
+                    }
+                    return new long[]{paths, grid.nodes};
+                }));
+            }
+
+            for (Future<long[]> worker : workers) {
+                long[] result = worker.get();
+                totalPaths += result[0];
+                nodes += result[1];
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Search interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Search failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
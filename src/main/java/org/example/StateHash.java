@@ -0,0 +1,29 @@
+package org.example;
+
+/**
+ *  Hash of a search state (current cell, visited cells), shared by the tables keyed by states.
+ *  The high bits are the best mixed, so tables take their slot index from the top of the hash.
+ */
+final class StateHash {
+    private StateHash() {
+    }
+
+    /**
+     * @param cell current cell index
+     * @param mask visited cells
+     * @return 64-bit hash of the state
+     */
+    static long of(int cell, long mask) {
+        return (mask ^ (cell * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L;
+    }
+
+    /**
+     * @param cell current cell index
+     * @param mask visited cells
+     * @param slots table size (power of two, at least 2)
+     * @return slot index of the state in a table of that size
+     */
+    static int slot(int cell, long mask, int slots) {
+        return (int) (of(cell, mask) >>> (Long.SIZE - Integer.numberOfTrailingZeros(slots)));
+    }
+}
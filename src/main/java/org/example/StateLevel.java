@@ -0,0 +1,441 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ *  The search states of one step, with identical (cell, visited cells) states merged by adding their
+ *  multiplicities. States are collected in an in-memory hash table. When the table reaches its memory
+ *  budget it is sorted and written to disk as a run, and the runs are merged again with sequential reads.
+ *  At most MERGE_FAN_IN runs are merged at once, so the read buffers of a merge fit in the same budget;
+ *  beyond that, runs are first merged into longer runs.
+ */
+class StateLevel implements Closeable {
+    private static final int BYTES_PER_SLOT = 21; // 17 bytes per slot plus 8 bytes of sort space per half slot
+    private static final int INITIAL_SLOTS = 1 << 10; // Table size before growing
+    private static final int MIN_SLOTS = 1 << 5; // Largest table size on the smallest budget
+    private static final int MAX_SLOTS = 1 << 30; // Largest table size on any budget
+    private static final int IO_BUFFER = 1 << 16; // Largest buffer of a run file
+    private static final int MIN_IO_BUFFER = 1 << 12; // Smallest buffer of a run file, even on a tiny budget
+    private static final int MERGE_FAN_IN = 16; // Most runs read at once
+
+    private final int maxSlots; // Largest table size, a power of two that fits the budget with its sort space
+    private final int maxStates; // States kept in memory before spilling a run, half of maxSlots
+    private final int ioBuffer; // Buffer size of run files; a full merge's buffers fit in the budget
+    private final Path spillDirectory; // Directory receiving the run files
+
+    private long[] masks; // Visited cells of each slot
+    private long[] counts; // Multiplicity of each slot (0 = empty)
+    private byte[] cells; // Current cell of each slot
+    private int states = 0; // Occupied slots
+
+    private final List<Path> runs = new ArrayList<>(); // Sorted runs on disk, spilled or merged
+    private int spills = 0; // Runs spilled from the table
+
+    /**
+     * Initialize an empty level
+     * @param memoryBudget bytes the in-memory table may use
+     * @param spillDirectory directory receiving the run files
+     */
+    public StateLevel(long memoryBudget, Path spillDirectory) {
+        // The table spills at half load, exactly when it would otherwise grow past maxSlots
+        long fittingSlots = Math.max(MIN_SLOTS, Math.min(MAX_SLOTS, memoryBudget / BYTES_PER_SLOT));
+        this.maxSlots = (int) Long.highestOneBit(fittingSlots);
+        this.maxStates = maxSlots / 2;
+        this.ioBuffer = (int) Math.max(MIN_IO_BUFFER, Math.min(IO_BUFFER, memoryBudget / (MERGE_FAN_IN + 1)));
+        this.spillDirectory = spillDirectory;
+        allocate(Math.min(INITIAL_SLOTS, maxSlots));
+    }
+
+    /**
+     * Replace the table with an empty one
+     * @param slots number of slots (power of two)
+     */
+    private void allocate(int slots) {
+        masks = new long[slots];
+        counts = new long[slots];
+        cells = new byte[slots];
+        states = 0;
+    }
+
+    /**
+     * Find the slot of a state, or the empty slot where it belongs
+     * @param cell current cell index
+     * @param mask visited cells
+     * @return slot index
+     */
+    private int find(int cell, long mask) {
+        int last = counts.length - 1;
+        int slot = StateHash.slot(cell, mask, counts.length);
+        while (counts[slot] != 0 && (masks[slot] != mask || cells[slot] != cell)) {
+            slot = (slot + 1) & last;
+        }
+        return slot;
+    }
+
+    /**
+     * Add a state, merging it with an identical one
+     * @param cell current cell index
+     * @param mask visited cells, including the current cell
+     * @param count number of paths reaching the state
+     */
+    public void add(int cell, long mask, long count) {
+        int slot = find(cell, mask);
+        if (counts[slot] != 0) {
+            counts[slot] += count;
+            return;
+        }
+
+        masks[slot] = mask;
+        cells[slot] = (byte) cell;
+        counts[slot] = count;
+        states++;
+
+        // Spill once the budget is reached, otherwise keep the table at most half full
+        if (states >= maxStates) {
+            spill();
+        } else if (states * 2 > counts.length) {
+            grow();
+        }
+    }
+
+    /**
+     * Double the table size
+     */
+    private void grow() {
+        long[] oldMasks = masks;
+        long[] oldCounts = counts;
+        byte[] oldCells = cells;
+        allocate(oldCounts.length * 2);
+
+        for (int slot = 0; slot < oldCounts.length; slot++) {
+            if (oldCounts[slot] != 0) {
+                int newSlot = find(oldCells[slot], oldMasks[slot]);
+                masks[newSlot] = oldMasks[slot];
+                cells[newSlot] = oldCells[slot];
+                counts[newSlot] = oldCounts[slot];
+                states++;
+            }
+        }
+    }
+
+    /**
+     * Write the table to disk sorted by (cell, visited cells) and empty it
+     */
+    private void spill() {
+        // Group the visited masks by cell, then sort every group
+        int[] offsets = new int[Long.SIZE + 1];
+        for (int slot = 0; slot < counts.length; slot++) {
+            if (counts[slot] != 0) {
+                offsets[cells[slot] + 1]++;
+            }
+        }
+        for (int cell = 0; cell < Long.SIZE; cell++) {
+            offsets[cell + 1] += offsets[cell];
+        }
+
+        long[] sorted = new long[states];
+        int[] next = Arrays.copyOf(offsets, Long.SIZE);
+        for (int slot = 0; slot < counts.length; slot++) {
+            if (counts[slot] != 0) {
+                sorted[next[cells[slot]]++] = masks[slot];
+            }
+        }
+
+        try {
+            Path run = Files.createTempFile(spillDirectory, "states", ".run");
+            runs.add(run);
+            spills++;
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(run), ioBuffer))) {
+                for (int cell = 0; cell < Long.SIZE; cell++) {
+                    Arrays.sort(sorted, offsets[cell], offsets[cell + 1]);
+                    for (int i = offsets[cell]; i < offsets[cell + 1]; i++) {
+                        out.writeByte(cell);
+                        out.writeLong(sorted[i]);
+                        out.writeLong(counts[find(cell, sorted[i])]);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Arrays.fill(counts, 0L);
+        states = 0;
+    }
+
+    /**
+     * @return number of runs spilled to disk
+     */
+    public int getRuns() {
+        return spills;
+    }
+
+    /**
+     * Read every merged state of the level once. No states may be added afterwards.
+     * @return cursor over the states
+     */
+    public Cursor cursor() {
+        if (runs.isEmpty()) {
+            return new Cursor(null);
+        }
+
+        if (states > 0) {
+            spill();
+        }
+        allocate(Math.min(INITIAL_SLOTS, maxSlots)); // The table is on disk now; leave the budget to the merge
+
+        // Merge the oldest runs into one until a single merge can read them all
+        while (runs.size() > MERGE_FAN_IN) {
+            List<Path> inputs = runs.subList(0, MERGE_FAN_IN);
+            Path merged = merge(inputs);
+            for (Path input : inputs) {
+                delete(input);
+            }
+            inputs.clear();
+            runs.add(merged);
+        }
+        return new Cursor(new Merge(runs, ioBuffer));
+    }
+
+    /**
+     * Merge runs into a new run, adding up identical states
+     * @param inputs runs to merge
+     * @return merged run
+     */
+    private Path merge(List<Path> inputs) {
+        try {
+            Path merged = Files.createTempFile(spillDirectory, "states", ".run");
+            try (Merge merge = new Merge(inputs, ioBuffer);
+                 DataOutputStream out = new DataOutputStream(
+                         new BufferedOutputStream(Files.newOutputStream(merged), ioBuffer))) {
+                while (merge.next()) {
+                    out.writeByte(merge.cell);
+                    out.writeLong(merge.mask);
+                    out.writeLong(merge.count);
+                }
+            }
+            return merged;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Delete a run file
+     * @param run path of the run
+     */
+    private static void delete(Path run) {
+        try {
+            Files.deleteIfExists(run);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Delete the run files
+     */
+    @Override
+    public void close() {
+        for (Path run : runs) {
+            delete(run);
+        }
+        runs.clear();
+    }
+
+    /**
+     * Iterates the states of a level, either straight from the table or by merging the runs
+     */
+    class Cursor implements Closeable {
+        private final Merge merge; // Merge of the runs, null when in memory
+        private int slot = -1; // Current slot when reading the table
+
+        private int cell; // Cell of the current state
+        private long mask; // Visited cells of the current state
+        private long count; // Multiplicity of the current state
+
+        private Cursor(Merge merge) {
+            this.merge = merge;
+        }
+
+        /**
+         * Move to the next state
+         * @return false once every state was read. otherwise true
+         */
+        public boolean next() {
+            if (merge == null) {
+                do {
+                    slot++;
+                } while (slot < counts.length && counts[slot] == 0);
+
+                if (slot == counts.length) {
+                    return false;
+                }
+                cell = cells[slot];
+                mask = masks[slot];
+                count = counts[slot];
+                return true;
+            }
+
+            if (!merge.next()) {
+                return false;
+            }
+            cell = merge.cell;
+            mask = merge.mask;
+            count = merge.count;
+            return true;
+        }
+
+        public int cell() {
+            return cell;
+        }
+
+        public long mask() {
+            return mask;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        @Override
+        public void close() {
+            if (merge != null) {
+                merge.close();
+            }
+        }
+    }
+
+    /**
+     * Merges sorted runs into one sorted sequence, adding up the same state from every run
+     */
+    private static class Merge implements Closeable {
+        private final PriorityQueue<Run> queue = new PriorityQueue<>(); // Runs ordered by their current state
+
+        private int cell; // Cell of the current state
+        private long mask; // Visited cells of the current state
+        private long count; // Multiplicity of the current state
+
+        /**
+         * Open the runs
+         * @param paths run files
+         * @param ioBuffer buffer size of each run
+         */
+        private Merge(List<Path> paths, int ioBuffer) {
+            try {
+                for (Path path : paths) {
+                    Run run = new Run(path, ioBuffer);
+                    if (run.advance()) {
+                        queue.add(run);
+                    } else {
+                        run.close();
+                    }
+                }
+            } catch (RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Move to the next state
+         * @return false once every state was read. otherwise true
+         */
+        private boolean next() {
+            if (queue.isEmpty()) {
+                return false;
+            }
+
+            Run run = queue.poll();
+            cell = run.cell;
+            mask = run.mask;
+            count = 0;
+            while (true) {
+                count += run.count;
+                if (run.advance()) {
+                    queue.add(run);
+                } else {
+                    run.close();
+                }
+
+                Run head = queue.peek();
+                if (head == null || head.cell != cell || head.mask != mask) {
+                    return true;
+                }
+                run = queue.poll();
+            }
+        }
+
+        @Override
+        public void close() {
+            for (Run run : queue) {
+                run.close();
+            }
+            queue.clear();
+        }
+    }
+
+    /**
+     * Sequential reader of one sorted run
+     */
+    private static class Run implements Comparable<Run>, Closeable {
+        private final DataInputStream in; // Run file contents
+
+        private int cell; // Cell of the current state
+        private long mask; // Visited cells of the current state
+        private long count; // Multiplicity of the current state
+
+        private Run(Path path, int ioBuffer) {
+            try {
+                this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), ioBuffer));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Read the next state
+         * @return false at the end of the run. otherwise true
+         */
+        private boolean advance() {
+            try {
+                cell = in.readByte();
+                mask = in.readLong();
+                count = in.readLong();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            return cell != other.cell ? Integer.compare(cell, other.cell) : Long.compare(mask, other.mask);
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.example;
+
+/**
+ *  Memory bounded table of subtree path counts, keyed by the current cell and the visited cells.
+ *  Two identical states at the same step have the same number of completions for the same commands,
+ *  so a stored count stays usable until a command at or after its step is edited.
+ */
+class SubtreeCache {
+    private final int indexShift; // Shift turning a 64-bit hash into a slot index
+    private final long[] visitedMasks; // Visited cells of each entry
+    private final byte[] cells; // Current cell of each entry
+    private final byte[] steps; // Step index of each entry
+    private final long[] counts; // Subtree path count of each entry
+    private final int[] generations; // Generation each entry was stored in (0 = empty)
+
+    private final int[] stepGenerations; // Generation of the last edit that affects each step
+    private int generation = 1; // Current generation, bumped on every edit
+
+    public long hits = 0; // Lookups answered from the table
+    public long misses = 0; // Lookups that had to be searched
+
+    /**
+     * Initialize the table
+     * @param capacity maximum number of entries (rounded up to a power of two)
+     * @param maxSteps steps required to traverse the grid
+     */
+    public SubtreeCache(int capacity, int maxSteps) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.indexShift = Long.SIZE - Integer.numberOfTrailingZeros(size);
+        this.visitedMasks = new long[size];
+        this.cells = new byte[size];
+        this.steps = new byte[size];
+        this.counts = new long[size];
+        this.generations = new int[size];
+        this.stepGenerations = new int[maxSteps + 1];
+    }
+
+    /**
+     * Find the slot of a state
+     * @param visitedMask visited cells, excluding the current cell
+     * @param cell current cell index
+     * @return slot index
+     */
+    private int slot(long visitedMask, int cell) {
+        return (int) (StateHash.of(cell, visitedMask) >>> indexShift);
+    }
+
+    /**
+     * Look up the subtree count of a state
+     * @param visitedMask visited cells, excluding the current cell
+     * @param cell current cell index
+     * @param step step index of the state
+     * @return stored count, or -1 if absent or outdated
+     */
+    public long get(long visitedMask, int cell, int step) {
+        int slot = slot(visitedMask, cell);
+        if (generations[slot] != 0 && generations[slot] >= stepGenerations[step]
+                && visitedMasks[slot] == visitedMask && cells[slot] == cell) {
+            hits++;
+            return counts[slot];
+        }
+        misses++;
+        return -1;
+    }
+
+    /**
+     * Store the subtree count of a state. An up-to-date entry of an earlier step is kept,
+     * since it stands for a larger subtree.
+     * @param visitedMask visited cells, excluding the current cell
+     * @param cell current cell index
+     * @param step step index of the state
+     * @param count number of valid paths in the subtree
+     */
+    public void put(long visitedMask, int cell, int step, long count) {
+        int slot = slot(visitedMask, cell);
+        if (generations[slot] != 0 && generations[slot] >= stepGenerations[steps[slot]] && steps[slot] < step) {
+            return;
+        }
+
+        visitedMasks[slot] = visitedMask;
+        cells[slot] = (byte) cell;
+        steps[slot] = (byte) step;
+        counts[slot] = count;
+        generations[slot] = generation;
+    }
+
+    /**
+     * Outdate every entry whose subtree includes the edited command
+     * @param position index of the edited command
+     */
+    public void invalidate(int position) {
+        generation++;
+        for (int step = 0; step <= position && step < stepGenerations.length; step++) {
+            stepGenerations[step] = generation;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.example;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ *  Several states per vector, one per lane. Every rule is rewritten as shifts of whole bitboards so all
+ *  lanes are checked at once: the dead end cells and the cells with at most one unvisited neighbor are
+ *  computed for the whole board, and the connectivity check floods the unvisited cells one ring per
+ *  iteration until no lane grows. Only the border masks of the candidate cells are gathered per lane.
+ *  Needs the jdk.incubator.vector module; ExpansionKernel.create picks the scalar kernel without it.
+ */
+class VectorExpansionKernel implements ExpansionKernel {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+    private final Grid grid; // Board and pruning rules
+    private final int width; // Number of columns
+    private final long allCells; // Every cell of the grid
+    private final long notFirstColumn; // Every cell but the first column
+    private final long notLastColumn; // Every cell but the last column
+    private final long edgeLeft, edgeRight, edgeUp, edgeDown; // Cells sealed by the grid edge on each side
+    private final long sealingCells; // Cells that close off a region when visited
+    private final long[] borderRequired; // Cells that must be visited before entering each cell
+    private final long[] borderAlternative; // Cells that may be visited instead of borderRequired
+    private final int[] deltas; // Index offset of each direction
+
+    private final long[] cellBits = new long[BATCH]; // Current cell of each state as a bitboard
+    private final int[][] nextCells = new int[4][BATCH]; // Cell in each direction, 0 when outside the grid
+    private final long[][] validLanes = new long[4][]; // Lanes where each direction is valid, per vector
+    private final long[][] forcedLanes = new long[4][]; // Lanes where each direction is the only one left, per vector
+    private final long[][] borderLanes = new long[4][]; // Lanes where each direction fails the border rule, per vector
+    private final long[][] deadEndLanes = new long[4][]; // Lanes where each direction enters a dead end, per vector
+    private final long[] seeds = new long[BATCH]; // First valid move of each state as a bitboard
+
+    public VectorExpansionKernel(Grid grid) {
+        this.grid = grid;
+        this.width = grid.getWidth();
+        int height = grid.getHeight();
+        int totalCells = width * height;
+
+        long firstColumn = 0;
+        for (int row = 0; row < height; row++) {
+            firstColumn |= 1L << (row * width);
+        }
+        long firstRow = width == Long.SIZE ? -1L : (1L << width) - 1;
+
+        this.allCells = totalCells == Long.SIZE ? -1L : (1L << totalCells) - 1;
+        this.notFirstColumn = allCells & ~firstColumn;
+        this.notLastColumn = allCells & ~(firstColumn << (width - 1));
+
+        boolean edgeSeals = grid.hasEdgeSeals();
+        this.edgeLeft = edgeSeals ? firstColumn : 0;
+        this.edgeRight = edgeSeals ? firstColumn << (width - 1) : 0;
+        this.edgeUp = edgeSeals ? firstRow : 0;
+        this.edgeDown = edgeSeals ? firstRow << (totalCells - width) : 0;
+        this.sealingCells = ~grid.getUnsealedObstacles();
+
+        this.borderRequired = grid.getBorderRequired();
+        this.borderAlternative = grid.getBorderAlternative();
+        this.deltas = new int[]{-width, width, -1, 1};
+
+        int vectors = (BATCH + SPECIES.length() - 1) / SPECIES.length();
+        for (int i = 0; i < 4; i++) {
+            validLanes[i] = new long[vectors];
+            forcedLanes[i] = new long[vectors];
+            borderLanes[i] = new long[vectors];
+            deadEndLanes[i] = new long[vectors];
+        }
+    }
+
+    /**
+     * @return every cell moved one row up; none on a single row of 64 columns, where a shift by the width is
+     * taken modulo 64 and would leave the cells in place
+     */
+    private LongVector up(LongVector cells) {
+        return width == Long.SIZE ? cells.broadcast(0) : cells.lanewise(VectorOperators.LSHR, width);
+    }
+
+    /**
+     * @return every cell moved one row down; none on a single row of 64 columns
+     */
+    private LongVector down(LongVector cells) {
+        return width == Long.SIZE ? cells.broadcast(0) : cells.lanewise(VectorOperators.LSHL, width).and(allCells);
+    }
+
+    @Override
+    public void expand(int[] cells, long[] visited, int count, int step, int allowedMoves, int[] moves) {
+        int height = grid.getHeight();
+        for (int i = 0; i < count; i++) {
+            int cell = cells[i];
+            int row = cell / width;
+            int col = cell % width;
+            cellBits[i] = 1L << cell;
+            nextCells[0][i] = row > 0 ? cell - width : 0;
+            nextCells[1][i] = row < height - 1 ? cell + width : 0;
+            nextCells[2][i] = col > 0 ? cell - 1 : 0;
+            nextCells[3][i] = col < width - 1 ? cell + 1 : 0;
+        }
+
+        // Test the four moves of every lane
+        int lanes = SPECIES.length();
+        for (int base = 0, vector = 0; base < count; base += lanes, vector++) {
+            VectorMask<Long> active = SPECIES.indexInRange(base, count);
+            LongVector seen = LongVector.fromArray(SPECIES, visited, base, active);
+            LongVector current = LongVector.fromArray(SPECIES, cellBits, base, active);
+            LongVector unvisited = seen.not().and(allCells);
+            LongVector sealed = seen.and(sealingCells);
+
+            // Cells whose neighbor on each side is unvisited
+            LongVector openLeft = unvisited.lanewise(VectorOperators.LSHL, 1).and(notFirstColumn);
+            LongVector openRight = unvisited.lanewise(VectorOperators.LSHR, 1).and(notLastColumn);
+            LongVector openUp = down(unvisited);
+            LongVector openDown = up(unvisited);
+
+            // Cells closed off on two opposite sides and open on the other two
+            LongVector sealedLeft = sealed.lanewise(VectorOperators.LSHL, 1).and(notFirstColumn).or(edgeLeft);
+            LongVector sealedRight = sealed.lanewise(VectorOperators.LSHR, 1).and(notLastColumn).or(edgeRight);
+            LongVector sealedUp = down(sealed).or(edgeUp);
+            LongVector sealedDown = up(sealed).or(edgeDown);
+            LongVector deadEnds = sealedLeft.and(sealedRight).and(openUp).and(openDown)
+                    .or(sealedUp.and(sealedDown).and(openLeft).and(openRight));
+
+            // Cells with at most one unvisited neighbor
+            LongVector twoOpen = openLeft.and(openRight.or(openUp).or(openDown))
+                    .or(openRight.and(openUp.or(openDown)))
+                    .or(openUp.and(openDown));
+            LongVector lastConnections = twoOpen.not();
+
+            LongVector[] candidates = {
+                    up(current),
+                    down(current),
+                    current.lanewise(VectorOperators.LSHR, 1).and(notLastColumn),
+                    current.lanewise(VectorOperators.LSHL, 1).and(notFirstColumn)
+            };
+            for (int i = 0; i < 4; i++) {
+                LongVector next = candidates[i].and(unvisited);
+                LongVector required = LongVector.fromArray(SPECIES, borderRequired, 0, nextCells[i], base, active);
+                LongVector alternative = LongVector.fromArray(SPECIES, borderAlternative, 0, nextCells[i], base, active);
+
+                VectorMask<Long> open = next.compare(VectorOperators.NE, 0);
+                VectorMask<Long> bordered = open.and(required.and(unvisited).compare(VectorOperators.EQ, 0)
+                        .or(alternative.and(unvisited).compare(VectorOperators.EQ, 0)));
+                VectorMask<Long> valid = bordered.and(next.and(deadEnds).compare(VectorOperators.EQ, 0));
+                validLanes[i][vector] = valid.toLong();
+                borderLanes[i][vector] = open.andNot(bordered).toLong();
+                deadEndLanes[i][vector] = bordered.andNot(valid).toLong();
+                forcedLanes[i][vector] = valid.and(next.and(lastConnections).compare(VectorOperators.NE, 0)).toLong();
+            }
+        }
+
+        // Gather the directions of every state; a move into a cell with a single connection left is the only one
+        long borderPrunes = 0;
+        long deadEndPrunes = 0;
+        for (int i = 0; i < count; i++) {
+            int vector = i / lanes;
+            int lane = i % lanes;
+            int validMoves = 0;
+            int forcedMoves = 0;
+            int borderMoves = 0;
+            int deadEndMoves = 0;
+            for (int direction = 0; direction < 4; direction++) {
+                validMoves |= (int) ((validLanes[direction][vector] >>> lane) & 1) << direction;
+                forcedMoves |= (int) ((forcedLanes[direction][vector] >>> lane) & 1) << direction;
+                borderMoves |= (int) ((borderLanes[direction][vector] >>> lane) & 1) << direction;
+                deadEndMoves |= (int) ((deadEndLanes[direction][vector] >>> lane) & 1) << direction;
+            }
+
+            // Grid checks the directions in order and stops at the first forced one, whatever the command allows
+            int checked = 0b1111;
+            if (forcedMoves != 0) {
+                validMoves = Integer.lowestOneBit(forcedMoves);
+                checked = (validMoves << 1) - 1;
+            }
+            borderPrunes += Integer.bitCount(borderMoves & checked);
+            deadEndPrunes += Integer.bitCount(deadEndMoves & checked);
+
+            validMoves &= allowedMoves;
+            moves[i] = validMoves;
+            seeds[i] = validMoves == 0 ? 0 : 1L << (cells[i] + deltas[Integer.numberOfTrailingZeros(validMoves)]);
+        }
+        grid.border += borderPrunes;
+        grid.deadEnd += deadEndPrunes;
+
+        // Flood the unvisited cells from the first move of every lane until no lane grows
+        for (int base = 0; base < count; base += lanes) {
+            VectorMask<Long> active = SPECIES.indexInRange(base, count);
+            LongVector unvisited = LongVector.fromArray(SPECIES, visited, base, active).not().and(allCells);
+            LongVector reached = LongVector.fromArray(SPECIES, seeds, base, active);
+
+            while (true) {
+                LongVector grown = reached
+                        .or(up(reached))
+                        .or(down(reached))
+                        .or(reached.lanewise(VectorOperators.LSHR, 1).and(notLastColumn))
+                        .or(reached.lanewise(VectorOperators.LSHL, 1).and(notFirstColumn))
+                        .and(unvisited);
+                if (grown.compare(VectorOperators.EQ, reached).allTrue()) {
+                    break;
+                }
+                reached = grown;
+            }
+
+            // Every unvisited cell must be reachable
+            long connected = reached.compare(VectorOperators.EQ, unvisited).toLong();
+            for (int lane = 0; lane < lanes && base + lane < count; lane++) {
+                if (moves[base + lane] != 0 && (connected & (1L << lane)) == 0) {
+                    moves[base + lane] = 0;
+                    grid.connectivity++;
+                }
+            }
+        }
+    }
+}
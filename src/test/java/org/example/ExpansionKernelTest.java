@@ -0,0 +1,128 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ *  The Vector API kernel must expand every state exactly like the scalar one. Run with
+ *  --add-modules jdk.incubator.vector (set up in the pom).
+ */
+class ExpansionKernelTest {
+    private static final int[][] BOARDS = {{64, 1}, {1, 64}, {32, 2}, {2, 32}, {8, 8}, {16, 4}, {4, 16}, {7, 9},
+            {5, 5}, {3, 7}}; // Width and height of the boards compared
+
+    @Test
+    void vectorKernelMatchesScalarKernel() {
+        SplittableRandom random = new SplittableRandom(36);
+        for (int[] board : BOARDS) {
+            // Corner to corner with wildcards only, so the walks reach the last step
+            int width = board[0];
+            int height = board[1];
+            compareKernels(() -> new Grid(width, height, 0L, 0, 0, height - 1, width - 1,
+                    "*".repeat(width * height - 1)), random);
+
+            for (int layout = 0; layout < 20; layout++) {
+                compareKernels(randomGrid(board[0], board[1], layout % 2 == 0 ? 0 : 8, random), random);
+            }
+        }
+    }
+
+    @Test
+    void singleRowOf64Columns() {
+        String commands = "R".repeat(63);
+        Grid grid = new Grid(64, 1, 0L, 0, 0, 0, 63, commands);
+        LevelGrid levels = new LevelGrid(grid, commands, AlgoByLevels.MEMORY_BUDGET,
+                Path.of(System.getProperty("java.io.tmpdir")));
+        levels.findTotalPaths();
+        assertEquals(1, levels.totalPaths);
+
+        int[] moves = new int[1];
+        new VectorExpansionKernel(grid).expand(new int[]{5}, new long[]{0b111111L}, 1, 5, 0b1111, moves);
+        assertEquals(0b1000, moves[0]);
+    }
+
+    /**
+     * @param obstacleOdds one cell in this many is blocked, none if 0
+     * @return new grids of the given shape with the same random obstacles, start, target and commands
+     */
+    private static Supplier<Grid> randomGrid(int width, int height, int obstacleOdds, SplittableRandom random) {
+        int cells = width * height;
+        long obstacles = 0;
+        for (int cell = 0; cell < cells; cell++) {
+            if (obstacleOdds > 0 && random.nextInt(obstacleOdds) == 0) {
+                obstacles |= 1L << cell;
+            }
+        }
+        int start = random.nextInt(cells);
+        int target = random.nextInt(cells);
+        long blocked = obstacles & ~(1L << start) & ~(1L << target);
+
+        StringBuilder commands = new StringBuilder();
+        for (int step = cells - Long.bitCount(blocked) - 1; step > 0; step--) {
+            commands.append(random.nextInt(4) == 0 ? "UDLR".charAt(random.nextInt(4)) : '*');
+        }
+        return () -> new Grid(width, height, blocked, start / width, start % width, target / width, target % width,
+                commands.toString());
+    }
+
+    /**
+     * Collect states of one step from random walks and expand them with both kernels
+     */
+    private static void compareKernels(Supplier<Grid> grids, SplittableRandom random) {
+        // Each kernel counts its prunes on its own grid; the walks use a third one
+        Grid grid = grids.get();
+        Grid scalarGrid = grids.get();
+        Grid vectorGrid = grids.get();
+        ExpansionKernel walker = new ScalarExpansionKernel(grid);
+        ExpansionKernel scalar = new ScalarExpansionKernel(scalarGrid);
+        ExpansionKernel vector = new VectorExpansionKernel(vectorGrid);
+        int maxSteps = grid.getMaxSteps();
+
+        for (int step = 0; step < maxSteps; step++) {
+            int[] cells = new int[ExpansionKernel.BATCH];
+            long[] visited = new long[ExpansionKernel.BATCH];
+            int count = 0;
+            for (int walk = 0; walk < 2 * ExpansionKernel.BATCH && count < ExpansionKernel.BATCH; walk++) {
+                int cell = grid.getStartIndex();
+                long mask = grid.getObstacleMask() | (1L << cell);
+                int depth = 0;
+                while (depth < step) {
+                    int[] moves = new int[1];
+                    walker.expand(new int[]{cell}, new long[]{mask}, 1, depth, 0b1111, moves);
+                    if (moves[0] == 0) {
+                        break;
+                    }
+                    for (int skip = random.nextInt(Integer.bitCount(moves[0])); skip > 0; skip--) {
+                        moves[0] &= moves[0] - 1;
+                    }
+                    cell = grid.moveIndex(cell, Integer.numberOfTrailingZeros(moves[0]));
+                    mask |= 1L << cell;
+                    depth++;
+                }
+                if (depth == step) {
+                    cells[count] = cell;
+                    visited[count] = mask;
+                    count++;
+                }
+            }
+
+            for (int allowedMoves : new int[]{0b1111, 0b0001, 0b0010, 0b0100, 0b1000}) {
+                int[] expected = new int[ExpansionKernel.BATCH];
+                int[] actual = new int[ExpansionKernel.BATCH];
+                scalar.expand(cells, visited, count, step, allowedMoves, expected);
+                vector.expand(cells, visited, count, step, allowedMoves, actual);
+                String board = grid.getWidth() + "x" + grid.getHeight() + " step " + step;
+                assertArrayEquals(expected, actual, board);
+                assertEquals(scalarGrid.border, vectorGrid.border, board + " border prunes");
+                assertEquals(scalarGrid.deadEnd, vectorGrid.deadEnd, board + " dead end prunes");
+                assertEquals(scalarGrid.connectivity, vectorGrid.connectivity, board + " connectivity prunes");
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *  Persistence, replacement and compaction of stored results
+ */
+class ResultStoreTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void resultSurvivesReopening() throws IOException {
+        Path file = directory.resolve("results.store");
+        try (ResultStore store = new ResultStore(file, 16)) {
+            assertTrue(store.put(4, 4, 0L, 0, 0, 3, 0, "*".repeat(15), 8, 120));
+        }
+
+        try (ResultStore store = new ResultStore(file, 16)) {
+            ResultStore.Record record = store.get(4, "*".repeat(15));
+            assertEquals(8, record.getTotalPaths());
+            assertEquals(120, record.getNodes());
+            assertEquals(Grid.ENGINE_VERSION, record.getEngineVersion());
+            assertNull(store.get(4, "R" + "*".repeat(14)));
+        }
+    }
+
+    @Test
+    void latestPutOfQueryWins() throws IOException {
+        try (ResultStore store = new ResultStore(directory.resolve("results.store"), 16)) {
+            put(store, "a", 1);
+            put(store, "a", 2);
+            assertEquals(2, get(store, "a").getTotalPaths());
+        }
+    }
+
+    @Test
+    void fullStoreDropsSupersededRecords() throws IOException {
+        try (ResultStore store = new ResultStore(directory.resolve("results.store"), 4)) {
+            put(store, "a", 1);
+            put(store, "b", 2);
+            put(store, "c", 3);
+            put(store, "a", 4); // Log full, the first record of "a" superseded
+
+            assertTrue(store.put(3, 3, 0L, 0, 0, 2, 0, "d", 5, 0));
+            assertEquals(4, get(store, "a").getTotalPaths());
+            assertEquals(2, get(store, "b").getTotalPaths());
+            assertEquals(3, get(store, "c").getTotalPaths());
+            assertEquals(5, get(store, "d").getTotalPaths());
+            assertFalse(store.put(3, 3, 0L, 0, 0, 2, 0, "e", 6, 0), "full of current records");
+        }
+    }
+
+    @Test
+    void otherEngineVersionIsIgnoredAndCompacted() throws IOException {
+        Path file = directory.resolve("results.store");
+        try (ResultStore store = new ResultStore(file, 2)) {
+            put(store, "a", 1);
+            put(store, "b", 2);
+        }
+        setVersion(file, 2, 0, Grid.ENGINE_VERSION + 1);
+
+        try (ResultStore store = new ResultStore(file, 2)) {
+            assertNull(get(store, "a"));
+            assertEquals(2, get(store, "b").getTotalPaths());
+            assertTrue(store.put(3, 3, 0L, 0, 0, 2, 0, "c", 3, 0), "stale record compacted away");
+            assertEquals(3, get(store, "c").getTotalPaths());
+        }
+    }
+
+    @Test
+    void secondStoreOfFileIsReadOnly() throws IOException {
+        Path file = directory.resolve("results.store");
+        try (ResultStore writer = new ResultStore(file, 16)) {
+            put(writer, "a", 1);
+            try (ResultStore reader = new ResultStore(file, 16)) {
+                assertTrue(writer.isWritable());
+                assertFalse(reader.isWritable());
+                assertFalse(reader.put(3, 3, 0L, 0, 0, 2, 0, "b", 2, 0));
+                assertEquals(1, get(reader, "a").getTotalPaths());
+            }
+            put(writer, "b", 2); // Closing the reader keeps the writer's lock
+        }
+    }
+
+    /**
+     * Store a result of a 3x3 query
+     */
+    private static void put(ResultStore store, String commands, long totalPaths) {
+        assertTrue(store.put(3, 3, 0L, 0, 0, 2, 0, commands, totalPaths, 0));
+    }
+
+    /**
+     * @return stored result of a 3x3 query, or null
+     */
+    private static ResultStore.Record get(ResultStore store, String commands) {
+        return store.get(3, 3, 0L, 0, 0, 2, 0, commands);
+    }
+
+    /**
+     * Rewrite the engine version of a record and its checksum, as an older engine would have stored it.
+     * Follows the file layout: a 64-byte header, 4 index slots per power of two of the capacity, then
+     * records of six little-endian longs with the version fifth and the CRC32 of the first five last.
+     */
+    private static void setVersion(Path file, int capacity, int record, long version) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int position = 64 + (Integer.highestOneBit(capacity) << 2) * Long.BYTES + record * 6 * Long.BYTES;
+            buffer.putLong(position + 4 * Long.BYTES, version);
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(position, 5 * Long.BYTES));
+            buffer.putLong(position + 5 * Long.BYTES, crc.getValue());
+            buffer.force();
+        }
+    }
+}
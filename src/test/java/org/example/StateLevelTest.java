@@ -0,0 +1,80 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ *  A level spilled to many runs must read back the same merged states as a level kept in memory.
+ */
+class StateLevelTest {
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void spilledLevelMatchesInMemoryLevel() throws IOException {
+        SplittableRandom random = new SplittableRandom(31);
+        long[] pool = new long[3000]; // Visited cells drawn from, so many states repeat
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = random.nextLong();
+        }
+
+        TreeMap<String, Long> expected = new TreeMap<>();
+        try (StateLevel spilled = new StateLevel(0, spillDirectory);
+             StateLevel inMemory = new StateLevel(AlgoByLevels.MEMORY_BUDGET, spillDirectory)) {
+            for (int i = 0; i < 20_000; i++) {
+                int cell = random.nextInt(Long.SIZE);
+                long mask = pool[random.nextInt(pool.length)];
+                long count = 1 + random.nextInt(1000);
+                spilled.add(cell, mask, count);
+                inMemory.add(cell, mask, count);
+            }
+            assertTrue(spilled.getRuns() > 16, "more runs than a single merge reads");
+            assertEquals(0, inMemory.getRuns());
+
+            try (StateLevel.Cursor cursor = inMemory.cursor()) {
+                while (cursor.next()) {
+                    expected.put(key(cursor.cell(), cursor.mask()), cursor.count());
+                }
+            }
+
+            // Runs come back sorted by (cell, visited cells) with every state once
+            int states = 0;
+            TreeMap<String, Long> actual = new TreeMap<>();
+            int previousCell = -1;
+            long previousMask = 0;
+            try (StateLevel.Cursor cursor = spilled.cursor()) {
+                while (cursor.next()) {
+                    assertTrue(cursor.cell() > previousCell
+                            || cursor.cell() == previousCell && cursor.mask() > previousMask, "sorted and merged");
+                    previousCell = cursor.cell();
+                    previousMask = cursor.mask();
+                    states++;
+                    actual.put(key(cursor.cell(), cursor.mask()), cursor.count());
+                }
+            }
+            assertEquals(expected.size(), states);
+            assertEquals(expected, actual);
+        }
+
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            assertEquals(0, files.filter(file -> file.toString().endsWith(".run")).count(), "run files left");
+        }
+    }
+
+    /**
+     * @return key of a state
+     */
+    private static String key(int cell, long mask) {
+        return cell + ":" + mask;
+    }
+}